@@ -29,20 +29,21 @@ import net.smoofyuniverse.map.WorldMapConfig;
 import net.smoofyuniverse.map.WorldMapLoader;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifiers;
-import net.smoofyuniverse.mirage.api.volume.ChunkView.State;
+import net.smoofyuniverse.mirage.command.MemoryCommand;
 import net.smoofyuniverse.mirage.config.pack.Resources;
 import net.smoofyuniverse.mirage.config.pack.ResourcesLoader;
 import net.smoofyuniverse.mirage.config.world.WorldConfig;
 import net.smoofyuniverse.mirage.event.BlockListener;
 import net.smoofyuniverse.mirage.event.ChunkListener;
 import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
-import net.smoofyuniverse.mirage.impl.network.NetworkChunk;
+import net.smoofyuniverse.mirage.impl.network.NetworkWorld;
 import net.smoofyuniverse.ore.update.UpdateChecker;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.spongepowered.api.Game;
 import org.spongepowered.api.ResourceKey;
 import org.spongepowered.api.Server;
+import org.spongepowered.api.command.Command;
 import org.spongepowered.api.config.ConfigDir;
 import org.spongepowered.api.event.EventManager;
 import org.spongepowered.api.event.Listener;
@@ -62,6 +63,11 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
 @Plugin("mirage")
 public class Mirage {
@@ -85,6 +91,7 @@ public class Mirage {
 	private Resources resources;
 
 	private ScheduledTask obfuscationTask;
+	private ForkJoinPool executor;
 
 	public Mirage() {
 		if (instance != null)
@@ -136,6 +143,13 @@ public class Mirage {
 		));
 	}
 
+	@Listener
+	public void onRegisterCommands(RegisterCommandEvent<Command.Parameterized> e) {
+		e.register(this.container, Command.builder()
+				.addChild(MemoryCommand.create(), "memory")
+				.build(), "mirage");
+	}
+
 	public static ResourceKey key(String value) {
 		int i = value.indexOf(':');
 		if (i == -1)
@@ -147,6 +161,12 @@ public class Mirage {
 	public void onServerStarting(StartingEngineEvent<Server> e) {
 		loadConfigs();
 
+		this.executor = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("Mirage Worker #" + thread.getPoolIndex());
+			return thread;
+		}, (thread, ex) -> LOGGER.error("Uncaught exception in thread {}", thread.getName(), ex), true);
+
 		EventManager em = this.game.eventManager();
 		em.registerListeners(this.container, new BlockListener());
 		em.registerListeners(this.container, new ChunkListener());
@@ -173,11 +193,10 @@ public class Mirage {
 	public void onServerStarted(StartedEngineEvent<Server> e) {
 		Server server = e.engine();
 		this.obfuscationTask = server.scheduler().submit(Task.builder().execute(() -> {
-			for (ServerWorld w : server.worldManager().worlds()) {
-				((InternalWorld) w).view().loadedOpaqueChunks()
-						.filter(chunk -> chunk.state() == State.OBFUSCATION_REQUESTED)
-						.forEach(NetworkChunk::obfuscate);
-			}
+			List<NetworkWorld> worlds = new ArrayList<>();
+			for (ServerWorld w : server.worldManager().worlds())
+				worlds.add(((InternalWorld) w).view());
+			NetworkWorld.tick(worlds);
 		}).interval(Ticks.of(1)).plugin(this.container).build());
 
 		LOGGER.info("Mirage {} was loaded successfully.", this.container.metadata().version());
@@ -197,6 +216,28 @@ public class Mirage {
 			this.obfuscationTask.cancel();
 			this.obfuscationTask = null;
 		}
+
+		if (this.executor != null) {
+			// Chunks still being obfuscated are not published anymore, but they must not outlive the worlds
+			this.executor.shutdown();
+			try {
+				if (!this.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					LOGGER.warn("Some chunks are still being obfuscated, cancelling them.");
+					this.executor.shutdownNow();
+				}
+			} catch (InterruptedException ex) {
+				this.executor.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * @return The pool used to run obfuscation off the main thread, or null if the server is not running
+	 */
+	public ForkJoinPool getExecutor() {
+		return this.executor;
 	}
 
 	public PluginContainer getContainer() {
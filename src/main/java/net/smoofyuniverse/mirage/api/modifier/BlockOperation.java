@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.api.modifier;
+
+import net.smoofyuniverse.mirage.api.volume.BlockView;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * A per-block form of a modifier, allowing several modifiers to be applied in a single pass over the blocks of a chunk.
+ * Calling {@link #apply} for each block of an area, iterating by Y, then Z, then X, must be equivalent to {@link ChunkModifier#modify}.
+ */
+public interface BlockOperation {
+
+	/**
+	 * @return The lowest Y affected by this operation
+	 */
+	int minY();
+
+	/**
+	 * @return The highest Y affected by this operation
+	 */
+	int maxY();
+
+	/**
+	 * @return Whether this operation uses the random generator
+	 */
+	boolean usesRandom();
+
+	/**
+	 * Checks whether this operation only replaces blocks by other blocks of the same opacity.
+	 * Such operation never changes the exposure of the blocks around it.
+	 *
+	 * @return true if this operation preserves opacity
+	 */
+	boolean preservesOpacity();
+
+	/**
+	 * Applies this operation to a single block.
+	 * This method is called for every block and thus must be optimized to be as fast as possible.
+	 *
+	 * @param view  The BlockView to modify
+	 * @param x     The X position
+	 * @param y     The Y position
+	 * @param z     The Z position
+	 * @param block The current block at this position
+	 * @param r     The random generator that should be used by the operation
+	 * @return The block at this position after the operation
+	 */
+	BlockState apply(BlockView view, int x, int y, int z, BlockState block, RandomGenerator r);
+}
@@ -28,6 +28,7 @@ import net.smoofyuniverse.mirage.api.volume.BlockView;
 import net.smoofyuniverse.mirage.api.volume.ChunkView;
 import org.spongepowered.api.ResourceKey;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.registry.DefaultedRegistryType;
 import org.spongepowered.api.registry.RegistryRoots;
 import org.spongepowered.api.registry.RegistryType;
@@ -38,7 +39,10 @@ import org.spongepowered.configurate.ConfigurationNode;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.math.vector.Vector3i;
 
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.random.RandomGenerator;
 
 /**
  * This object is used to modify chunk per chunk the view of the world sent to players.
@@ -91,18 +95,60 @@ public interface ChunkModifier {
 		return true;
 	}
 
+	/**
+	 * Gets the mapping applied by this modifier if it only replaces some block states by other ones, regardless of their surroundings and without randomness.
+	 * When a mapping is available, it might be applied directly on the sections instead of calling the modify methods.
+	 *
+	 * @param config The configuration
+	 * @return The mapping, or empty if this modifier is not a pure state-to-state mapping
+	 */
+	default Optional<StateMapping> stateMapping(Object config) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Gets the block states this modifier acts on.
+	 * When targets are declared, sections whose palette contains none of them are skipped
+	 * and {@link #modify(BlockView, Vector3i, Vector3i, RandomGenerator, Object)} is called section per section instead of once per chunk.
+	 * A modifier declaring targets must neither modify blocks nor use randomness in an area containing none of them.
+	 *
+	 * @param config The configuration
+	 * @return The target block states, or empty if this modifier might act on any block
+	 */
+	default Optional<Set<BlockState>> targetBlocks(Object config) {
+		return Optional.empty();
+	}
+
+	/**
+	 * Gets a per-block form of this modifier, allowing it to be applied in a single pass together with other modifiers.
+	 *
+	 * @param config The configuration
+	 * @return The operation, or empty if this modifier can't be applied block per block
+	 */
+	default Optional<BlockOperation> blockOperation(Object config) {
+		return Optional.empty();
+	}
+
 	/**
 	 * Modifies the ChunkView that will be sent to players.
 	 * This method might check and modify thousands blocks and thus must be optimized to be as fast as possible.
 	 *
 	 * @param view   The ChunkView to modify
-	 * @param r      The Random object that should be used by the modifier
+	 * @param r      The random generator that should be used by the modifier
 	 * @param config The configuration
 	 */
-	default void modify(ChunkView view, Random r, Object config) {
+	default void modify(ChunkView view, RandomGenerator r, Object config) {
 		modify(view, view.min(), view.max(), r, config);
 	}
 
+	/**
+	 * @deprecated Use {@link #modify(ChunkView, RandomGenerator, Object)} instead.
+	 */
+	@Deprecated
+	default void modify(ChunkView view, Random r, Object config) {
+		modify(view, (RandomGenerator) r, config);
+	}
+
 	/**
 	 * Modifies the BlockView that will be sent to players.
 	 * This method might check and modify thousands blocks and thus must be optimized to be as fast as possible.
@@ -110,8 +156,16 @@ public interface ChunkModifier {
 	 * @param view The BlockView to modify
 	 * @param min  The lowest block location to modify
 	 * @param max  The highest block location to modify
-	 * @param r    The Random object that should be used by the modifier
+	 * @param r    The random generator that should be used by the modifier
 	 * @param config The configuration
 	 */
-	void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config);
+	void modify(BlockView view, Vector3i min, Vector3i max, RandomGenerator r, Object config);
+
+	/**
+	 * @deprecated Use {@link #modify(BlockView, Vector3i, Vector3i, RandomGenerator, Object)} instead.
+	 */
+	@Deprecated
+	default void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config) {
+		modify(view, min, max, (RandomGenerator) r, config);
+	}
 }
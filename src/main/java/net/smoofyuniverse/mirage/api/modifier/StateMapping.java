@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.api.modifier;
+
+import com.google.common.collect.ImmutableMap;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.Map;
+
+/**
+ * A pure state-to-state mapping, applied to all blocks between two heights regardless of their surroundings.
+ */
+public final class StateMapping {
+	public final Map<BlockState, BlockState> replacements;
+	public final int minY, maxY;
+
+	public StateMapping(Map<BlockState, BlockState> replacements, int minY, int maxY) {
+		if (replacements == null)
+			throw new IllegalArgumentException("replacements");
+		if (minY > maxY)
+			throw new IllegalArgumentException("Invalid range");
+		this.replacements = ImmutableMap.copyOf(replacements);
+		this.minY = minY;
+		this.maxY = maxY;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.api.volume;
+
+/**
+ * An estimation of the memory used by Mirage in a world.
+ * All values are in bytes.
+ */
+public final class MemoryUsage {
+	public static final MemoryUsage EMPTY = new MemoryUsage(0, 0, 0, 0);
+
+	/**
+	 * The memory used by the blocks and the opacity of the network sections.
+	 */
+	public final long sections;
+
+	/**
+	 * The memory used by the dynamism of the network sections.
+	 */
+	public final long dynamism;
+
+	/**
+	 * The memory used to track the dynamic blocks revealed to each player.
+	 */
+	public final long players;
+
+	/**
+	 * The memory used by chunks waiting to be saved to the cache.
+	 */
+	public final long pendingSaves;
+
+	public MemoryUsage(long sections, long dynamism, long players, long pendingSaves) {
+		this.sections = sections;
+		this.dynamism = dynamism;
+		this.players = players;
+		this.pendingSaves = pendingSaves;
+	}
+
+	/**
+	 * @return The total memory used
+	 */
+	public long total() {
+		return this.sections + this.dynamism + this.players + this.pendingSaves;
+	}
+
+	/**
+	 * @param other The other usage
+	 * @return The sum of this usage and the given one
+	 */
+	public MemoryUsage add(MemoryUsage other) {
+		return new MemoryUsage(this.sections + other.sections, this.dynamism + other.dynamism,
+				this.players + other.players, this.pendingSaves + other.pendingSaves);
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryUsage{sections=" + this.sections + ", dynamism=" + this.dynamism
+				+ ", players=" + this.players + ", pendingSaves=" + this.pendingSaves + "}";
+	}
+}
@@ -76,6 +76,14 @@ public interface WorldView extends BlockView, OpaqueWorld<ChunkView> {
 	 */
 	WorldConfig config();
 
+	/**
+	 * Gets an estimation of the memory currently used by Mirage in this world.
+	 * The usage is maintained incrementally, so this method is cheap.
+	 *
+	 * @return The memory usage
+	 */
+	MemoryUsage memoryUsage();
+
 	/**
 	 * Reobfuscates blocks around the given position according to the radius set in the configuration.
 	 *
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.command;
+
+import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.smoofyuniverse.mirage.api.volume.MemoryUsage;
+import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.command.Command;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.parameter.CommandContext;
+import org.spongepowered.api.command.parameter.Parameter;
+import org.spongepowered.api.world.server.ServerWorld;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+/**
+ * Shows an estimation of the memory used by Mirage in each world.
+ */
+public class MemoryCommand {
+	private static final Parameter.Value<ServerWorld> WORLD = Parameter.world().key("world").optional().build();
+
+	public static Command.Parameterized create() {
+		return Command.builder()
+				.shortDescription(Component.text("Shows the memory used by Mirage"))
+				.permission("mirage.command.memory")
+				.addParameter(WORLD)
+				.executor(MemoryCommand::execute)
+				.build();
+	}
+
+	private static CommandResult execute(CommandContext ctx) {
+		Optional<ServerWorld> world = ctx.one(WORLD);
+		Collection<ServerWorld> worlds = world.isPresent() ? Collections.singleton(world.get()) : Sponge.server().worldManager().worlds();
+
+		Audience audience = ctx.cause().audience();
+		audience.sendMessage(Component.text("Mirage memory usage:", NamedTextColor.GOLD));
+
+		MemoryUsage total = MemoryUsage.EMPTY;
+		for (ServerWorld w : worlds) {
+			MemoryUsage usage = ((InternalWorld) w).view().memoryUsage();
+			audience.sendMessage(format(w.key().asString(), usage));
+			total = total.add(usage);
+		}
+
+		if (worlds.size() > 1)
+			audience.sendMessage(format("total", total));
+		return CommandResult.success();
+	}
+
+	private static Component format(String name, MemoryUsage usage) {
+		return Component.text(name + ": ", NamedTextColor.YELLOW)
+				.append(Component.text(formatBytes(usage.total()), NamedTextColor.WHITE))
+				.append(Component.text(" (sections " + formatBytes(usage.sections)
+						+ ", dynamism " + formatBytes(usage.dynamism)
+						+ ", players " + formatBytes(usage.players)
+						+ ", pending saves " + formatBytes(usage.pendingSaves) + ")", NamedTextColor.GRAY));
+	}
+
+	public static String formatBytes(long bytes) {
+		if (bytes < 1024)
+			return bytes + " B";
+		if (bytes < 1024 * 1024)
+			return String.format("%.1f KiB", bytes / 1024d);
+		return String.format("%.1f MiB", bytes / (1024d * 1024d));
+	}
+}
@@ -47,6 +47,18 @@ public class MainConfig {
 	@Setting("FakeSeed")
 	public boolean fakeSeed = true;
 
+	@Comment("Maximum time in milliseconds spent each tick on scheduling the obfuscation of chunks, between 1 and 50. Shared by all worlds, the highest value is used")
+	@Setting("ObfuscationBudget")
+	public int obfuscationBudget = 10;
+
+	@Comment("Minimum distance in blocks the player must move before dynamic blocks are updated, between 1 and 16")
+	@Setting("DynamismUpdateDistance")
+	public int dynamismUpdateDistance = 1;
+
+	@Comment("Minimum number of ticks between two updates of dynamic blocks for a player, between 1 and 20")
+	@Setting("DynamismUpdateInterval")
+	public int dynamismUpdateInterval = 1;
+
 	@Comment("The world type used for automatic config generation")
 	@Setting("WorldType")
 	public ResourceKey worldType;
@@ -55,26 +67,32 @@ public class MainConfig {
 	public DeobfuscationConfig deobf = new DeobfuscationConfig();
 
 	public Resolved resolve(WorldType worldType) {
-		return new Resolved(this.enabled, this.cache, this.dynamism, this.fakeSeed, worldType, this.deobf.resolve());
+		return new Resolved(this.enabled, this.cache, this.dynamism, this.fakeSeed, this.obfuscationBudget,
+				this.dynamismUpdateDistance, this.dynamismUpdateInterval, worldType, this.deobf.resolve());
 	}
 
 	public static class Resolved {
 		public final boolean enabled, cache, dynamism, fakeSeed;
+		public final int obfuscationBudget, dynamismUpdateDistance, dynamismUpdateInterval;
 		public final WorldType worldType;
 		public final DeobfuscationConfig.Resolved deobf;
 
-		public Resolved(boolean enabled, boolean cache, boolean dynamism, boolean fakeSeed,
-						WorldType worldType, DeobfuscationConfig.Resolved deobf) {
+		public Resolved(boolean enabled, boolean cache, boolean dynamism, boolean fakeSeed, int obfuscationBudget,
+						int dynamismUpdateDistance, int dynamismUpdateInterval, WorldType worldType, DeobfuscationConfig.Resolved deobf) {
 			this.enabled = enabled;
 			this.cache = cache;
 			this.dynamism = dynamism;
 			this.fakeSeed = fakeSeed;
+			this.obfuscationBudget = obfuscationBudget;
+			this.dynamismUpdateDistance = dynamismUpdateDistance;
+			this.dynamismUpdateInterval = dynamismUpdateInterval;
 			this.worldType = worldType;
 			this.deobf = deobf;
 		}
 
 		public Resolved disable() {
-			return this.enabled ? new Resolved(false, this.cache, this.dynamism, this.fakeSeed, this.worldType, this.deobf) : this;
+			return this.enabled ? new Resolved(false, this.cache, this.dynamism, this.fakeSeed, this.obfuscationBudget,
+					this.dynamismUpdateDistance, this.dynamismUpdateInterval, this.worldType, this.deobf) : this;
 		}
 	}
 }
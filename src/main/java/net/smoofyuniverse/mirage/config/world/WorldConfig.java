@@ -101,6 +101,9 @@ public class WorldConfig {
 
 		cfg.deobf.naturalRadius = clamp(cfg.deobf.naturalRadius, 1, 4);
 		cfg.deobf.playerRadius = clamp(cfg.deobf.playerRadius, 1, 4);
+		cfg.obfuscationBudget = clamp(cfg.obfuscationBudget, 1, 50);
+		cfg.dynamismUpdateDistance = clamp(cfg.dynamismUpdateDistance, 1, 16);
+		cfg.dynamismUpdateInterval = clamp(cfg.dynamismUpdateInterval, 1, 20);
 
 		Resources resources = Mirage.get().getResources();
 
@@ -65,9 +65,9 @@ public class BlockListener {
 			Vector3i pos = loc.blockPosition();
 
 			if (isOpaque)
-				world.reobfuscateSurrounding(pos, player, true);
+				world.reobfuscateOpaqueChange(pos.x(), pos.y(), pos.z(), player);
 			else
-				world.deobfuscateSurrounding(pos, player, true);
+				world.revealTransparentChange(pos.x(), pos.y(), pos.z(), player);
 		}
 	}
 
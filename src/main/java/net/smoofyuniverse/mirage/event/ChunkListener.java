@@ -22,14 +22,13 @@
 
 package net.smoofyuniverse.mirage.event;
 
-import net.smoofyuniverse.mirage.Mirage;
-import net.smoofyuniverse.mirage.api.volume.ChunkView.State;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
 import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
 import net.smoofyuniverse.mirage.impl.network.NetworkChunk;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.world.SaveWorldEvent;
 import org.spongepowered.api.event.world.chunk.ChunkEvent;
+import org.spongepowered.math.vector.Vector3i;
 
 public class ChunkListener {
 
@@ -40,15 +39,23 @@ public class ChunkListener {
 
 	@Listener
 	public void onChunkLoad(ChunkEvent.Load e) {
-		try {
-			InternalChunk chunk = (InternalChunk) e.chunk();
-			if (chunk.isViewAvailable()) {
-				NetworkChunk netChunk = chunk.view();
-				if (netChunk.state() != State.OBFUSCATED)
-					netChunk.loadFromCacheNow();
-			}
-		} catch (Exception ex) {
-			Mirage.LOGGER.error("Failed to load a network chunk from cache", ex);
-		}
+		InternalChunk chunk = (InternalChunk) e.chunk();
+		// The cache is read when the chunk is sent to a player
+		if (chunk.isViewAvailable())
+			chunk.view().markCached();
+
+		Vector3i pos = chunk.chunkPosition();
+		chunk.world().view().onChunkLoaded(pos.x(), pos.z());
+	}
+
+	@Listener
+	public void onChunkUnload(ChunkEvent.Unload.Pre e) {
+		InternalChunk chunk = (InternalChunk) e.chunk();
+		if (chunk.isViewAvailable())
+			chunk.view().release();
+
+		Vector3i pos = chunk.chunkPosition();
+		chunk.world().view().removeWaitingChunk(pos.x(), pos.z());
+		chunk.world().view().cancelEviction(pos.x(), pos.z());
 	}
 }
@@ -25,4 +25,9 @@ package net.smoofyuniverse.mirage.impl.internal;
 public interface InternalBlockState {
 
 	boolean isOpaque();
+
+	/**
+	 * @return The global id of this state in the block state registry
+	 */
+	int getStateId();
 }
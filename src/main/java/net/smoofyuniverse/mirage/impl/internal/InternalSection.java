@@ -23,13 +23,14 @@
 package net.smoofyuniverse.mirage.impl.internal;
 
 import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.smoofyuniverse.mirage.impl.network.NetworkSection;
 
 public interface InternalSection {
 
 	NetworkSection view();
 
-	void _write(FriendlyByteBuf buffer);
+	void _write(FriendlyByteBuf buffer, LevelChunk chunk);
 
-	int _getSerializedSize();
+	int _getSerializedSize(LevelChunk chunk);
 }
@@ -52,4 +52,6 @@ public interface InternalWorld extends WorldStorage {
 	DynamicWorld getDynamicWorld(UUID id);
 
 	void removeDynamicWorld(UUID id);
+
+	void updateDynamicWorlds();
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network;
+
+import net.smoofyuniverse.mirage.api.volume.MemoryUsage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the memory used by the structures of a world.
+ * Each structure reports the difference of its estimated size when it changes,
+ * so the usage is always available without walking the world.
+ */
+public final class MemoryTracker {
+	// Estimated sizes of the object headers and of the array headers
+	public static final int OBJECT = 16, ARRAY = 16, REFERENCE = 4;
+
+	private final LongAdder sections = new LongAdder(), dynamism = new LongAdder(),
+			players = new LongAdder(), pendingSaves = new LongAdder();
+
+	public void addSections(long delta) {
+		this.sections.add(delta);
+	}
+
+	public void addDynamism(long delta) {
+		this.dynamism.add(delta);
+	}
+
+	public void addPlayers(long delta) {
+		this.players.add(delta);
+	}
+
+	public void addPendingSaves(long delta) {
+		this.pendingSaves.add(delta);
+	}
+
+	public MemoryUsage snapshot() {
+		return new MemoryUsage(this.sections.sum(), this.dynamism.sum(), this.players.sum(), this.pendingSaves.sum());
+	}
+
+	public static int sizeOf(long[] array) {
+		return array == null ? 0 : ARRAY + (array.length << 3);
+	}
+
+	public static int sizeOf(int[] array) {
+		return array == null ? 0 : ARRAY + (array.length << 2);
+	}
+
+	public static int sizeOf(short[] array) {
+		return array == null ? 0 : ARRAY + (array.length << 1);
+	}
+
+	public static int sizeOf(byte[] array) {
+		return array == null ? 0 : ARRAY + array.length;
+	}
+
+	public static int sizeOf(Object[] array) {
+		return array == null ? 0 : ARRAY + array.length * REFERENCE;
+	}
+}
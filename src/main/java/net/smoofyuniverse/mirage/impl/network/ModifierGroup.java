@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network;
+
+import com.google.common.collect.ImmutableList;
+import net.smoofyuniverse.mirage.api.modifier.BlockOperation;
+import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
+import net.smoofyuniverse.mirage.api.modifier.ConfiguredModifier;
+import net.smoofyuniverse.mirage.util.BlockStateSet;
+import org.spongepowered.api.ResourceKey;
+import org.spongepowered.api.block.BlockState;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * A group of consecutive modifiers that are applied together.
+ * When operations are available, all blocks are visited once and dispatched to each operation in config order.
+ * Modifiers are only fused when the result is identical to the sequential order:
+ * all operations must preserve opacity (so exposure doesn't change during the pass) and at most one can use randomness.
+ * When all modifiers declare their targets, sections containing none of them are skipped.
+ */
+public final class ModifierGroup {
+	public final List<ConfiguredModifier> modifiers;
+	@Nullable
+	public final BlockOperation[] operations;
+	public final int[] minY, maxY;
+	@Nullable
+	public final Set<BlockState> targets;
+
+	private ModifierGroup(List<ConfiguredModifier> modifiers, @Nullable List<BlockOperation> operations) {
+		this.modifiers = ImmutableList.copyOf(modifiers);
+		this.targets = targets(this.modifiers);
+
+		if (operations == null) {
+			this.operations = null;
+			this.minY = null;
+			this.maxY = null;
+		} else {
+			this.operations = operations.toArray(new BlockOperation[0]);
+			this.minY = new int[this.operations.length];
+			this.maxY = new int[this.operations.length];
+			for (int i = 0; i < this.operations.length; i++) {
+				this.minY[i] = this.operations[i].minY();
+				this.maxY[i] = this.operations[i].maxY();
+			}
+		}
+	}
+
+	public boolean isFused() {
+		return this.operations != null;
+	}
+
+	public int getMinY() {
+		int minY = Integer.MAX_VALUE;
+		for (int y : this.minY)
+			minY = Math.min(minY, y);
+		return minY;
+	}
+
+	public int getMaxY() {
+		int maxY = Integer.MIN_VALUE;
+		for (int y : this.maxY)
+			maxY = Math.max(maxY, y);
+		return maxY;
+	}
+
+	@Override
+	public String toString() {
+		List<ResourceKey> keys = new ArrayList<>();
+		for (ConfiguredModifier mod : this.modifiers)
+			keys.add(ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier));
+		return keys.toString();
+	}
+
+	@Nullable
+	private static Set<BlockState> targets(List<ConfiguredModifier> modifiers) {
+		Set<BlockState> targets = new HashSet<>();
+		for (ConfiguredModifier mod : modifiers) {
+			Optional<Set<BlockState>> modTargets = mod.modifier.targetBlocks(mod.config);
+			if (modTargets.isEmpty())
+				return null;
+			targets.addAll(modTargets.get());
+		}
+		return BlockStateSet.of(targets);
+	}
+
+	public static List<ModifierGroup> of(List<ConfiguredModifier> modifiers) {
+		ImmutableList.Builder<ModifierGroup> groups = ImmutableList.builder();
+		List<ConfiguredModifier> mods = new ArrayList<>();
+		List<BlockOperation> ops = new ArrayList<>();
+		boolean random = false;
+
+		for (ConfiguredModifier mod : modifiers) {
+			BlockOperation op = mod.modifier.blockOperation(mod.config).filter(BlockOperation::preservesOpacity).orElse(null);
+
+			if (op != null && !(random && op.usesRandom())) {
+				mods.add(mod);
+				ops.add(op);
+				random |= op.usesRandom();
+				continue;
+			}
+
+			flush(groups, mods, ops);
+			random = false;
+
+			if (op == null) {
+				groups.add(new ModifierGroup(List.of(mod), null));
+			} else {
+				mods.add(mod);
+				ops.add(op);
+				random = op.usesRandom();
+			}
+		}
+
+		flush(groups, mods, ops);
+		return groups.build();
+	}
+
+	private static void flush(ImmutableList.Builder<ModifierGroup> groups, List<ConfiguredModifier> mods, List<BlockOperation> ops) {
+		if (mods.size() == 1)
+			groups.add(new ModifierGroup(mods, null));
+		else if (mods.size() > 1)
+			groups.add(new ModifierGroup(mods, ops));
+
+		mods.clear();
+		ops.clear();
+	}
+}
@@ -22,20 +22,30 @@
 
 package net.smoofyuniverse.mirage.impl.network;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.smoofyuniverse.mirage.Mirage;
+import net.smoofyuniverse.mirage.api.modifier.BlockOperation;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
 import net.smoofyuniverse.mirage.api.modifier.ConfiguredModifier;
+import net.smoofyuniverse.mirage.api.modifier.StateMapping;
+import net.smoofyuniverse.mirage.api.volume.BlockView;
 import net.smoofyuniverse.mirage.api.volume.ChunkView;
-import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
 import net.smoofyuniverse.mirage.impl.internal.InternalSection;
 import net.smoofyuniverse.mirage.impl.network.change.ChunkChangeListener;
+import net.smoofyuniverse.mirage.impl.network.change.RecordedChanges;
 import net.smoofyuniverse.mirage.util.BlockUtil;
+import net.smoofyuniverse.mirage.util.RandomUtil;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.fluid.FluidState;
 import org.spongepowered.api.world.volume.stream.StreamOptions;
@@ -43,8 +53,17 @@ import org.spongepowered.api.world.volume.stream.VolumeStream;
 import org.spongepowered.common.util.VecHelper;
 import org.spongepowered.math.vector.Vector3i;
 
-import java.util.Random;
-
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.random.RandomGenerator;
+
+import static net.smoofyuniverse.mirage.impl.network.MemoryTracker.*;
 import static net.smoofyuniverse.mirage.util.BlockUtil.AIR;
 import static org.spongepowered.math.GenericMath.clamp;
 
@@ -52,6 +71,14 @@ import static org.spongepowered.math.GenericMath.clamp;
  * Represents a chunk viewed for the network (aka online players)
  */
 public class NetworkChunk implements ChunkView {
+	// x + 1, x - 1, z + 1, z - 1
+	private static final int[] NEIGHBOR_X = {1, -1, 0, 0}, NEIGHBOR_Z = {0, 0, 1, -1};
+	// Blocks at x = 0 and x = 15 in an opacity word
+	private static final long X_MIN = 0x0001_0001_0001_0001L, X_MAX = 0x8000_8000_8000_8000L;
+	// Estimated sizes of a revealed position with its slot in the map, of a key in a group and of a group of keys with its slot in the map
+	private static final int REVEALED_SIZE = OBJECT + 2 * REFERENCE + 4 + 2 * (4 + REFERENCE),
+			KEY_SIZE = 4, SOURCE_SIZE = OBJECT + 8 + ARRAY + 2 * (8 + REFERENCE);
+
 	private final InternalChunk chunk;
 
 	private final NetworkWorld world;
@@ -62,10 +89,30 @@ public class NetworkChunk implements ChunkView {
 	private final long seed;
 
 	public final NetworkSection[] sections;
-	private final Random random = new Random();
 	private State state = State.DEOBFUSCATED;
 	private ChunkChangeListener listener;
 
+	// Opacity of the neighbor sections, only used by detached copies
+	@Nullable
+	private final long[][][] neighborOpacity;
+
+	// Exposure of the sections, only available during a modification pass
+	@Nullable
+	private long[][] exposure;
+
+	private CompletableFuture<NetworkChunk> pendingCopy;
+	private int[] pendingModCounts;
+
+	// Modification counts of the sections when the cache was last known to be valid, null if it must not be used
+	private int[] cachedModCounts;
+
+	// Obfuscated content of the positions revealed by blocks becoming transparent, indexed by (y - minY) << 8 | z << 4 | x
+	private Int2ObjectMap<Revealed> revealed;
+	// Keys of the revealed positions grouped by the position of the block that revealed them, see BlockPos#asLong
+	private Long2ObjectMap<IntList> revealedBySource;
+	// Estimated memory used by the two maps above, reported as part of the sections
+	private long revealedBytes;
+
 	public NetworkChunk(InternalChunk chunk, NetworkWorld world) {
 		this.chunk = chunk;
 		this.world = world;
@@ -79,9 +126,9 @@ public class NetworkChunk implements ChunkView {
 		this.dynamismEnabled = world.isDynamismEnabled();
 
 		long wSeed = world.config().obfuscationSeed;
-		this.random.setSeed(wSeed);
-		long k = this.random.nextLong() | 1L;
-		long l = this.random.nextLong() | 1L;
+		RandomGenerator random = RandomUtil.create(wSeed);
+		long k = random.nextLong() | 1L;
+		long l = random.nextLong() | 1L;
 		this.seed = (long) this.x * k + (long) this.z * l ^ wSeed;
 
 		LevelChunkSection[] internalSections = chunk.getSections();
@@ -89,8 +136,51 @@ public class NetworkChunk implements ChunkView {
 		for (int i = 0; i < internalSections.length; i++) {
 			NetworkSection section = ((InternalSection) internalSections[i]).view();
 			section.minY = (this.minSectionY + i) << 4;
+			section.setTracker(world.getMemoryTracker());
 			this.sections[i] = section;
 		}
+
+		this.neighborOpacity = null;
+	}
+
+	// Creates a detached copy that can be modified from another thread
+	private NetworkChunk(NetworkChunk chunk) {
+		this.chunk = chunk.chunk;
+		this.world = chunk.world;
+		this.position = chunk.position;
+		this.blockMin = chunk.blockMin;
+		this.blockMax = chunk.blockMax;
+		this.blockSize = chunk.blockSize;
+		this.minSectionY = chunk.minSectionY;
+		this.x = chunk.x;
+		this.z = chunk.z;
+		this.dynamismEnabled = chunk.dynamismEnabled;
+		this.seed = chunk.seed;
+
+		this.sections = new NetworkSection[chunk.sections.length];
+		for (int i = 0; i < this.sections.length; i++)
+			this.sections[i] = chunk.sections[i].copy();
+
+		this.neighborOpacity = new long[4][][];
+		for (int side = 0; side < 4; side++) {
+			NetworkChunk neighbor = this.world.chunk(this.x + NEIGHBOR_X[side], this.z + NEIGHBOR_Z[side]);
+			if (neighbor != null) {
+				long[][] opacity = new long[neighbor.sections.length][];
+				for (int i = 0; i < opacity.length; i++)
+					opacity[i] = neighbor.sections[i].getOpacity().clone();
+				this.neighborOpacity[side] = opacity;
+			}
+		}
+	}
+
+	/**
+	 * Stops reporting the memory used by the sections of this chunk.
+	 * Called when the chunk is unloaded.
+	 */
+	public void release() {
+		clearRevealed();
+		for (NetworkSection section : this.sections)
+			section.setTracker(null);
 	}
 
 	public ChunkChangeListener getListener() {
@@ -106,6 +196,15 @@ public class NetworkChunk implements ChunkView {
 	}
 
 	public void saveToCacheLater() {
+		saveToCacheLater(true);
+	}
+
+	/**
+	 * Saves the content of this chunk to the cache if it has changed.
+	 *
+	 * @param markUnsaved Whether the chunk must be saved so the cache stays usable after a restart
+	 */
+	private void saveToCacheLater(boolean markUnsaved) {
 		if (shouldSave()) {
 			long time = ((ServerLevel) this.world.storage()).getGameTime();
 
@@ -117,7 +216,8 @@ public class NetworkChunk implements ChunkView {
 			}
 
 			this.chunk.setCacheTime(time);
-			this.chunk.setUnsaved(true);
+			if (markUnsaved)
+				this.chunk.setUnsaved(true);
 			clearDirty();
 		}
 	}
@@ -139,6 +239,19 @@ public class NetworkChunk implements ChunkView {
 		return tag;
 	}
 
+	/**
+	 * Estimates the memory used by a tag produced by {@link #serialize()}, see {@link NetworkSection#estimateSize(CompoundTag)}.
+	 *
+	 * @param tag The serialized chunk
+	 * @return The estimated size in bytes
+	 */
+	public static long estimateSize(CompoundTag tag) {
+		long size = 2 * OBJECT + 64;
+		for (Tag t : tag.getListOrEmpty("Sections"))
+			size += NetworkSection.estimateSize((CompoundTag) t);
+		return size;
+	}
+
 	public boolean shouldSave() {
 		return this.state == State.OBFUSCATED && isDirty();
 	}
@@ -169,9 +282,11 @@ public class NetworkChunk implements ChunkView {
 
 	public void loadFromCacheNow() {
 		if (this.world.useCache()) {
-			CompoundTag tag = this.world.readFromCache(this.x, this.z);
+			// A pending save is more recent than the content of the cache
+			CompoundTag tag = this.world.getPendingSave(this.x, this.z);
+			if (tag == null)
+				tag = this.world.readFromCache(this.x, this.z);
             if (tag != null && tag.getLongOr("LastUpdate", 0) == this.chunk.getCacheTime()) {
-				this.world.removePendingSave(this.x, this.z);
 				deserialize(tag);
 
 				this.state = State.OBFUSCATED;
@@ -214,38 +329,400 @@ public class NetworkChunk implements ChunkView {
 		reobfuscate(minX, minY, minZ, maxX, maxY, maxZ);
 	}
 
+	/**
+	 * Marks the cache as usable to restore this chunk as long as its sections are not modified.
+	 * The cache is only read when the chunk is about to be obfuscated.
+	 */
+	public void markCached() {
+		if (this.state == State.DEOBFUSCATED)
+			this.cachedModCounts = getModCounts();
+	}
+
+	private void restoreFromCache() {
+		int[] modCounts = this.cachedModCounts;
+		if (modCounts == null)
+			return;
+
+		this.cachedModCounts = null;
+		if (this.state == State.DEOBFUSCATED && Arrays.equals(modCounts, getModCounts())) {
+			try {
+				loadFromCacheNow();
+			} catch (Exception e) {
+				Mirage.LOGGER.error("Failed to load a network chunk from cache", e);
+			}
+		}
+	}
+
+	/**
+	 * Releases the obfuscated content of this chunk when no player can see it anymore.
+	 * The content is saved to the cache first, then restored from it or obfuscated again on the worker pool
+	 * when the chunk comes back into the range of a player, see {@link #requestObfuscation()}.
+	 * The chunk itself is not marked unsaved: if it is not saved for another reason, the cache is just not used after a restart.
+	 */
+	public void evict() {
+		if (this.state != State.OBFUSCATED || this.pendingCopy != null)
+			return;
+
+		saveToCacheLater(false);
+		clearRevealed();
+
+		for (NetworkSection section : this.sections) {
+			section.clearDynamism();
+			section.deobfuscate(null);
+			section.releaseEncoded();
+		}
+		clearDirty();
+
+		this.state = State.DEOBFUSCATED;
+		this.cachedModCounts = getModCounts();
+	}
+
 	@Override
 	public void obfuscate() {
+		restoreFromCache();
+		if (this.state == State.OBFUSCATED)
+			return;
+
+		// The pending result is discarded rather than waited for
+		discardPendingObfuscation();
+
+		if (requireNeighbors() && !areNeighborsLoaded()) {
+			this.state = State.OBFUSCATION_REQUESTED;
+			this.world.addWaitingChunk(this.x, this.z);
+		} else {
+			modify();
+			this.state = State.OBFUSCATED;
+		}
+	}
+
+	/**
+	 * Requests the obfuscation of this chunk.
+	 * The obfuscation is submitted to the worker pool right away if the neighbors are loaded,
+	 * its result is published by the scheduler according to the tick budget and the distance to the players tracking this chunk.
+	 */
+	public void requestObfuscation() {
+		restoreFromCache();
+		if (this.state == State.OBFUSCATED || this.pendingCopy != null)
+			return;
+
+		this.state = State.OBFUSCATION_REQUESTED;
+		obfuscateLater();
+	}
+
+	/**
+	 * Obfuscates this chunk on a worker thread.
+	 * The result is published by a later call to this method or to {@link #publishObfuscation()}.
+	 */
+	public void obfuscateLater() {
 		if (this.state == State.OBFUSCATED)
 			return;
 
-		boolean requireNeighbors = false;
+		if (this.pendingCopy != null) {
+			publishObfuscation();
+			return;
+		}
+
+		if (requireNeighbors() && !areNeighborsLoaded()) {
+			this.state = State.OBFUSCATION_REQUESTED;
+			this.world.addWaitingChunk(this.x, this.z);
+			return;
+		}
+
+		ForkJoinPool executor = Mirage.get().getExecutor();
+		if (executor == null) {
+			modify();
+			this.state = State.OBFUSCATED;
+			return;
+		}
+
+		// Changes are always recorded since a listener might be set before the result is published
+		NetworkChunk copy = new NetworkChunk(this);
+		copy.listener = new RecordedChanges();
+
+		this.pendingModCounts = getViewModCounts();
+		for (NetworkSection section : this.sections)
+			section.trackRealChanges();
+
+		this.pendingCopy = CompletableFuture.supplyAsync(() -> {
+			copy.modify();
+			return copy;
+		}, executor);
+		this.pendingCopy.whenComplete((c, ex) -> this.world.markReady(this.x, this.z));
+		this.state = State.OBFUSCATION_REQUESTED;
+	}
+
+	/**
+	 * Publishes the result of the pending asynchronous obfuscation if it is done, without waiting for it.
+	 * The blocks of the real chunk changed in the meantime are revealed in the result.
+	 * If this chunk has been modified in any other way, the obfuscation is submitted again.
+	 *
+	 * @return true if this chunk is obfuscated
+	 */
+	public boolean publishObfuscation() {
+		CompletableFuture<NetworkChunk> future = this.pendingCopy;
+		if (future == null)
+			return this.state == State.OBFUSCATED;
+		if (!future.isDone())
+			return false;
+
+		int[] modCounts = this.pendingModCounts;
+		long[][] realChanges = stopPendingObfuscation();
+
+		NetworkChunk copy;
+		try {
+			copy = future.join();
+		} catch (Exception e) {
+			// Modifier exceptions are caught by the worker, this is a last resort
+			Mirage.LOGGER.error("Failed to obfuscate a network chunk asynchronously", e);
+			modify();
+			this.state = State.OBFUSCATED;
+			return true;
+		}
+
+		if (!Arrays.equals(modCounts, getViewModCounts())) {
+			obfuscateLater();
+			return false;
+		}
+
+		// The content of the copy must be read before being shared with the live sections
+		net.minecraft.world.level.block.state.BlockState[][] previousStates = new net.minecraft.world.level.block.state.BlockState[this.sections.length][];
+		for (int i = 0; i < this.sections.length; i++) {
+			if (realChanges[i] != null)
+				previousStates[i] = copy.sections[i].getBlockStates(realChanges[i]);
+		}
+
+		for (int i = 0; i < this.sections.length; i++)
+			this.sections[i].load(copy.sections[i]);
+
+		for (int i = 0; i < this.sections.length; i++) {
+			if (realChanges[i] != null)
+				replayRealChanges(this.sections[i], realChanges[i], previousStates[i]);
+		}
+
+		if (this.listener != null)
+			((RecordedChanges) copy.listener).replay(this.listener);
+
+		this.state = State.OBFUSCATED;
+		return true;
+	}
+
+	// Reveals the blocks changed while the copy was modified, as well as their neighbors that they expose
+	private void replayRealChanges(NetworkSection section, long[] changes, net.minecraft.world.level.block.state.BlockState[] previousStates) {
+		for (int w = 0, k = 0; w < 64; w++) {
+			for (long bits = changes[w]; bits != 0; bits &= bits - 1, k++) {
+				int i = w << 6 | Long.numberOfTrailingZeros(bits);
+				section.revealRealChange(i & 15, i >> 8, i >> 4 & 15, previousStates[k]);
+			}
+		}
+
+		for (int w = 0; w < 64; w++) {
+			for (long bits = changes[w]; bits != 0; bits &= bits - 1) {
+				int i = w << 6 | Long.numberOfTrailingZeros(bits);
+				int x = this.blockMin.x() + (i & 15), y = section.minY + (i >> 8), z = this.blockMin.z() + (i >> 4 & 15);
+				if (section.isOpaque(x & 15, y & 15, z & 15))
+					continue;
+
+				revealIfExposed(x + 1, y, z);
+				revealIfExposed(x - 1, y, z);
+				revealIfExposed(x, y + 1, z);
+				revealIfExposed(x, y - 1, z);
+				revealIfExposed(x, y, z + 1);
+				revealIfExposed(x, y, z - 1);
+			}
+		}
+	}
+
+	private void revealIfExposed(int x, int y, int z) {
+		if (contains(x, y, z) && isExposed(x, y, z))
+			getSection(y >> 4).deobfuscate(this.listener, x & 15, y & 15, z & 15);
+	}
+
+	private long[][] stopPendingObfuscation() {
+		this.pendingCopy = null;
+		this.pendingModCounts = null;
+
+		long[][] realChanges = new long[this.sections.length][];
+		for (int i = 0; i < this.sections.length; i++)
+			realChanges[i] = this.sections[i].stopTrackingRealChanges();
+		return realChanges;
+	}
+
+	private void discardPendingObfuscation() {
+		if (this.pendingCopy != null) {
+			this.pendingCopy.cancel(false);
+			stopPendingObfuscation();
+		}
+	}
+
+	public boolean isObfuscationPending() {
+		return this.pendingCopy != null;
+	}
+
+	private int[] getViewModCounts() {
+		int[] modCounts = new int[this.sections.length];
+		for (int i = 0; i < modCounts.length; i++)
+			modCounts[i] = this.sections[i].getViewModCount();
+		return modCounts;
+	}
+
+	private int[] getModCounts() {
+		int[] modCounts = new int[this.sections.length];
+		for (int i = 0; i < modCounts.length; i++)
+			modCounts[i] = this.sections[i].getModCount();
+		return modCounts;
+	}
+
+	private boolean requireNeighbors() {
 		for (ConfiguredModifier mod : this.world.config().modifiers) {
-			if (mod.modifier.requireNeighborsLoaded()) {
-				requireNeighbors = true;
-				break;
+			if (mod.modifier.requireNeighborsLoaded())
+				return true;
+		}
+		return false;
+	}
+
+	private void modify() {
+		this.exposure = new long[this.sections.length][];
+
+		List<ModifierGroup> groups = this.world.getModifierGroups();
+		for (int g = 0; g < groups.size(); g++) {
+			ModifierGroup group = groups.get(g);
+			if (group.isFused()) {
+				try {
+					apply(this, group, g, this.blockMin, this.blockMax);
+				} catch (Exception ex) {
+					Mirage.LOGGER.error("Modifiers {} have thrown an exception while modifying a network chunk", group, ex);
+				}
+				continue;
+			}
+
+			ConfiguredModifier mod = group.modifiers.get(0);
+			try {
+				Optional<StateMapping> mapping = mod.modifier.stateMapping(mod.config);
+				if (mapping.isPresent())
+					replace(mapping.get());
+				else if (group.targets != null)
+					modifySections(this, mod, group.targets, g, this.blockMin, this.blockMax);
+				else
+					mod.modifier.modify(this, RandomUtil.create(this.seed, stream(g, -1)), mod.config);
+			} catch (Exception ex) {
+				Mirage.LOGGER.error("Modifier {} has thrown an exception while modifying a network chunk", ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier), ex);
 			}
 		}
 
-		if (requireNeighbors && !areNeighborsLoaded()) {
-			this.state = State.OBFUSCATION_REQUESTED;
-		} else {
-			this.random.setSeed(this.seed);
+		this.exposure = null;
+	}
 
-			for (ConfiguredModifier mod : this.world.config().modifiers) {
+	/**
+	 * Each modifier group uses its own random sub-stream per section,
+	 * so the result doesn't depend on skipped sections nor on the order in which sections are processed.
+	 *
+	 * @param group   The index of the modifier group
+	 * @param section The index of the section, or -1 for the whole chunk
+	 * @return The stream number
+	 */
+	private static long stream(int group, int section) {
+		return (long) group << 32 | (section + 1);
+	}
+
+	/**
+	 * Applies the modifiers again in an area of this chunk, using the same random streams as the whole chunk obfuscation.
+	 *
+	 * @param view The view to modify, either this chunk or a region containing it
+	 * @param min  The lowest block location to modify
+	 * @param max  The highest block location to modify
+	 */
+	void modify(BlockView view, Vector3i min, Vector3i max) {
+		List<ModifierGroup> groups = this.world.getModifierGroups();
+		for (int g = 0; g < groups.size(); g++) {
+			ModifierGroup group = groups.get(g);
+			if (group.isFused()) {
 				try {
-					mod.modifier.modify(this, this.random, mod.config);
+					apply(view, group, g, min, max);
 				} catch (Exception ex) {
-					Mirage.LOGGER.error("Modifier {} has thrown an exception while modifying a network chunk", ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier), ex);
+					Mirage.LOGGER.error("Modifiers {} have thrown an exception while (re)modifying a part of a network chunk", group, ex);
 				}
+				continue;
 			}
 
-			this.state = State.OBFUSCATED;
+			ConfiguredModifier mod = group.modifiers.get(0);
+			try {
+				if (group.targets != null)
+					modifySections(view, mod, group.targets, g, min, max);
+				else
+					mod.modifier.modify(view, min, max, RandomUtil.create(this.seed, stream(g, -1)), mod.config);
+			} catch (Exception ex) {
+				Mirage.LOGGER.error("Modifier {} has thrown an exception while (re)modifying a part of a network chunk", ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier), ex);
+			}
+		}
+	}
+
+	private void modifySections(BlockView view, ConfiguredModifier mod, Set<BlockState> targets, int g, Vector3i min, Vector3i max) {
+		for (int sectionY = min.y() >> 4; sectionY <= max.y() >> 4; sectionY++) {
+			NetworkSection section = getSection(sectionY);
+			if (section.hasOnlyAir() || !section.maybeHas(targets))
+				continue;
+
+			int sectionMinY = sectionY << 4;
+			mod.modifier.modify(view, new Vector3i(min.x(), Math.max(min.y(), sectionMinY), min.z()),
+					new Vector3i(max.x(), Math.min(max.y(), sectionMinY + 15), max.z()), RandomUtil.create(this.seed, stream(g, sectionY - this.minSectionY)), mod.config);
+		}
+	}
+
+	private void apply(BlockView view, ModifierGroup group, int g, Vector3i min, Vector3i max) {
+		BlockOperation[] ops = group.operations;
+		int[] opMinY = group.minY, opMaxY = group.maxY;
+		final int minX = min.x(), minZ = min.z(), maxX = max.x(), maxZ = max.z();
+		final int minY = Math.max(group.getMinY(), min.y()), maxY = Math.min(group.getMaxY(), max.y());
+
+		for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+			NetworkSection section = getSection(sectionY);
+			if (group.targets != null && (section.hasOnlyAir() || !section.maybeHas(group.targets)))
+				continue;
+
+			RandomGenerator random = RandomUtil.create(this.seed, stream(g, sectionY - this.minSectionY));
+
+			int sectionMaxY = Math.min(maxY, (sectionY << 4) + 15);
+			for (int y = Math.max(minY, sectionY << 4); y <= sectionMaxY; y++) {
+				int dy = y & 15;
+
+				for (int z = minZ; z <= maxZ; z++) {
+					for (int x = minX; x <= maxX; x++) {
+						BlockState b = (BlockState) section.getBlockState(x & 15, dy, z & 15);
+						for (int i = 0; i < ops.length; i++) {
+							if (y >= opMinY[i] && y <= opMaxY[i])
+								b = ops[i].apply(view, x, y, z, b, random);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void replace(StateMapping mapping) {
+		if (mapping.replacements.isEmpty())
+			return;
+
+		int minY = Math.max(mapping.minY, this.blockMin.y()), maxY = Math.min(mapping.maxY, this.blockMax.y());
+		for (int sectionY = minY >> 4; sectionY <= maxY >> 4; sectionY++) {
+			int sectionMinY = sectionY << 4;
+			if (getSection(sectionY).replace((Map) mapping.replacements, Math.max(minY - sectionMinY, 0), Math.min(maxY - sectionMinY, 15), this.listener)
+					&& this.exposure != null) {
+				int i = sectionY - this.minSectionY;
+				this.exposure[i] = null;
+				if (i > 0)
+					this.exposure[i - 1] = null;
+				if (i + 1 < this.exposure.length)
+					this.exposure[i + 1] = null;
+			}
 		}
 	}
 
 	@Override
 	public void deobfuscate() {
+		discardPendingObfuscation();
+		this.cachedModCounts = null;
+		clearRevealed();
+
 		if (this.state == State.DEOBFUSCATED)
 			return;
 
@@ -328,6 +805,18 @@ public class NetworkChunk implements ChunkView {
 	public boolean isExposed(int x, int y, int z) {
 		checkBlockPosition(x, y, z);
 
+		if (this.exposure != null) {
+			int i = (y >> 4) - this.minSectionY;
+			long[] exposure = this.exposure[i];
+			if (exposure == null) {
+				exposure = computeExposure(i);
+				this.exposure[i] = exposure;
+			}
+
+			int index = NetworkSection.index(x & 15, y & 15, z & 15);
+			return (exposure[index >> 6] & (1L << index)) != 0;
+		}
+
 		x &= 15;
 		z &= 15;
 
@@ -341,32 +830,28 @@ public class NetworkChunk implements ChunkView {
 
 		// x + 1
 		if (x == 15) {
-			NetworkChunk section = this.world.chunk(this.x + 1, this.z);
-			if (section == null || !section.isOpaque(0, y, z))
+			if (!isNeighborOpaque(0, 0, y, z))
 				return true;
 		} else if (!isOpaque(x + 1, y, z))
 			return true;
 
 		// x - 1
 		if (x == 0) {
-			NetworkChunk section = this.world.chunk(this.x - 1, this.z);
-			if (section == null || !section.isOpaque(15, y, z))
+			if (!isNeighborOpaque(1, 15, y, z))
 				return true;
 		} else if (!isOpaque(x - 1, y, z))
 			return true;
 
 		// z + 1
 		if (z == 15) {
-			NetworkChunk section = this.world.chunk(this.x, this.z + 1);
-			if (section == null || !section.isOpaque(x, y, 0))
+			if (!isNeighborOpaque(2, x, y, 0))
 				return true;
 		} else if (!isOpaque(x, y, z + 1))
 			return true;
 
 		// z - 1
 		if (z == 0) {
-			NetworkChunk section = this.world.chunk(this.x, this.z - 1);
-			if (section == null || !section.isOpaque(x, y, 15))
+			if (!isNeighborOpaque(3, x, y, 15))
 				return true;
 		} else if (!isOpaque(x, y, z - 1))
 			return true;
@@ -374,6 +859,58 @@ public class NetworkChunk implements ChunkView {
 		return false;
 	}
 
+	private boolean isNeighborOpaque(int side, int x, int y, int z) {
+		long[] opacity = getNeighborOpacity(side, (y >> 4) - this.minSectionY);
+		if (opacity == null)
+			return false;
+
+		int index = NetworkSection.index(x, y & 15, z);
+		return (opacity[index >> 6] & (1L << index)) != 0;
+	}
+
+	@Nullable
+	private long[] getNeighborOpacity(int side, int i) {
+		if (this.neighborOpacity != null) {
+			long[][] opacity = this.neighborOpacity[side];
+			return opacity == null ? null : opacity[i];
+		}
+
+		NetworkChunk neighbor = this.world.chunk(this.x + NEIGHBOR_X[side], this.z + NEIGHBOR_Z[side]);
+		return neighbor == null ? null : neighbor.sections[i].getOpacity();
+	}
+
+	/**
+	 * Computes the exposure of all blocks of a section using its opacity mask and the masks of the six surrounding sections.
+	 * Each word holds 4 rows of 16 blocks along the X axis, see {@link NetworkSection#index(int, int, int)}.
+	 *
+	 * @param i The index of the section
+	 * @return The exposure mask
+	 */
+	private long[] computeExposure(int i) {
+		long[] m = this.sections[i].getOpacity();
+		long[] up = i + 1 < this.sections.length ? this.sections[i + 1].getOpacity() : null;
+		long[] down = i > 0 ? this.sections[i - 1].getOpacity() : null;
+		long[] east = getNeighborOpacity(0, i), west = getNeighborOpacity(1, i);
+		long[] south = getNeighborOpacity(2, i), north = getNeighborOpacity(3, i);
+
+		long[] exposure = new long[64];
+		for (int w = 0; w < 64; w++) {
+			long v = m[w];
+
+			long xp = (v >>> 1) & ~X_MAX | (east == null ? 0 : (east[w] & X_MIN) << 15);
+			long xm = (v << 1) & ~X_MIN | (west == null ? 0 : (west[w] & X_MAX) >>> 15);
+
+			long zp = (v >>> 16) | ((w & 3) != 3 ? m[w + 1] : south == null ? 0 : south[w - 3]) << 48;
+			long zm = (v << 16) | ((w & 3) != 0 ? m[w - 1] : north == null ? 0 : north[w + 3]) >>> 48;
+
+			long yp = w < 60 ? m[w + 4] : up == null ? 0 : up[w - 60];
+			long ym = w >= 4 ? m[w - 4] : down == null ? 0 : down[w + 60];
+
+			exposure[w] = ~(xp & xm & zp & zm & yp & ym);
+		}
+		return exposure;
+	}
+
 	@Override
 	public void deobfuscateArea(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean silentFail) {
 		checkBlockArea(minX, minY, minZ, maxX, maxY, maxZ);
@@ -382,9 +919,142 @@ public class NetworkChunk implements ChunkView {
 			deobfuscate(minX, minY, minZ, maxX, maxY, maxZ);
 	}
 
+	/**
+	 * Deobfuscates all blocks in the given area and remembers their obfuscated content,
+	 * so they can be hidden again by {@link #hideRevealed(long, int, int, int)}.
+	 *
+	 * @param source The position of the block becoming transparent, see BlockPos#asLong
+	 */
+	public void reveal(long source, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		if (this.state == State.DEOBFUSCATED)
+			return;
+
+		for (int y = minY; y <= maxY; y++) {
+			NetworkSection section = getSection(y >> 4);
+
+			for (int x = minX; x <= maxX; x++) {
+				for (int z = minZ; z <= maxZ; z++) {
+					net.minecraft.world.level.block.state.BlockState hidden = section.getBlockState(x & 15, y & 15, z & 15),
+							real = section.getRealState(x & 15, y & 15, z & 15);
+					if (hidden == real)
+						continue;
+
+					int dynamism = section.getDynamism(x & 15, y & 15, z & 15);
+					if (section.deobfuscate(this.listener, x & 15, y & 15, z & 15)) {
+						if (this.revealed == null) {
+							this.revealed = new Int2ObjectOpenHashMap<>();
+							this.revealedBySource = new Long2ObjectOpenHashMap<>();
+						}
+						int key = revealedKey(x, y, z);
+						long bytes = KEY_SIZE;
+						if (this.revealed.put(key, new Revealed(hidden, real, dynamism)) == null)
+							bytes += REVEALED_SIZE;
+						IntList keys = this.revealedBySource.get(source);
+						if (keys == null) {
+							this.revealedBySource.put(source, keys = new IntArrayList());
+							bytes += SOURCE_SIZE;
+						}
+						keys.add(key);
+						addRevealedBytes(bytes);
+					}
+				}
+			}
+		}
+	}
+
+	private void forgetRevealed(int key) {
+		if (this.revealed.remove(key) != null)
+			addRevealedBytes(-REVEALED_SIZE);
+	}
+
+	private void clearRevealed() {
+		addRevealedBytes(-this.revealedBytes);
+		this.revealed = null;
+		this.revealedBySource = null;
+	}
+
+	private void addRevealedBytes(long delta) {
+		if (delta != 0) {
+			this.world.getMemoryTracker().addSections(delta);
+			this.revealedBytes += delta;
+		}
+	}
+
+	private int revealedKey(int x, int y, int z) {
+		return (y - this.blockMin.y()) << 8 | (z & 15) << 4 | (x & 15);
+	}
+
+	/**
+	 * Hides again the positions that might not be exposed anymore after the given block became opaque:
+	 * the positions it revealed with {@link #reveal(long, int, int, int, int, int, int)} and its 6 neighbors.
+	 * They are looked up directly instead of iterating all revealed positions.
+	 *
+	 * @param source The position of the block becoming opaque, see BlockPos#asLong
+	 * @param x      The X position of the block
+	 * @param y      The Y position of the block
+	 * @param z      The Z position of the block
+	 */
+	public void hideRevealed(long source, int x, int y, int z) {
+		if (this.revealed == null)
+			return;
+
+		IntList keys = this.revealedBySource.remove(source);
+		if (keys != null) {
+			addRevealedBytes(-SOURCE_SIZE - (long) keys.size() * KEY_SIZE);
+			for (int k = 0; k < keys.size(); k++)
+				hideRevealed(keys.getInt(k));
+		}
+
+		hideRevealedNeighbor(x + 1, y, z);
+		hideRevealedNeighbor(x - 1, y, z);
+		hideRevealedNeighbor(x, y + 1, z);
+		hideRevealedNeighbor(x, y - 1, z);
+		hideRevealedNeighbor(x, y, z + 1);
+		hideRevealedNeighbor(x, y, z - 1);
+
+		if (this.revealed.isEmpty())
+			clearRevealed();
+	}
+
+	private void hideRevealedNeighbor(int x, int y, int z) {
+		if (contains(x, y, z))
+			hideRevealed(revealedKey(x, y, z));
+	}
+
+	/**
+	 * Restores the obfuscated content of a revealed position if it is not exposed anymore.
+	 * If it is still exposed but was dynamic, the modifiers are applied again so it becomes dynamic again.
+	 * The position is forgotten if it doesn't show its real block anymore.
+	 */
+	private void hideRevealed(int key) {
+		Revealed r = this.revealed.get(key);
+		if (r == null)
+			return;
+
+		int x = this.blockMin.x() + (key & 15), y = this.blockMin.y() + (key >> 8), z = this.blockMin.z() + (key >> 4 & 15);
+		NetworkSection section = getSection(y >> 4);
+		if (section.getBlockState(x & 15, y & 15, z & 15) != r.real || section.getRealState(x & 15, y & 15, z & 15) != r.real) {
+			forgetRevealed(key);
+			return;
+		}
+
+		if (isExposed(x, y, z)) {
+			if (r.dynamism != 0) {
+				forgetRevealed(key);
+				reobfuscate(x, y, z, x, y, z);
+			}
+			return;
+		}
+
+		forgetRevealed(key);
+		setBlock(x, y, z, (BlockState) r.hidden);
+		if (r.dynamism != 0)
+			setDynamism(x, y, z, r.dynamism);
+	}
+
 	@Override
 	public boolean isOpaque(int x, int y, int z) {
-		return ((InternalBlockState) getSection(y >> 4).getBlockState(x & 15, y & 15, z & 15)).isOpaque();
+		return getSection(y >> 4).isOpaque(x & 15, y & 15, z & 15);
 	}
 
 	@Override
@@ -419,15 +1089,7 @@ public class NetworkChunk implements ChunkView {
 
 	protected void reobfuscate(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
 		deobfuscate(minX, minY, minZ, maxX, maxY, maxZ);
-		Vector3i min = new Vector3i(minX, minY, minZ), max = new Vector3i(maxX, maxY, maxZ);
-
-		for (ConfiguredModifier mod : this.world.config().modifiers) {
-			try {
-				mod.modifier.modify(this, min, max, this.random, mod.config);
-			} catch (Exception ex) {
-				Mirage.LOGGER.error("Modifier {} has thrown an exception while (re)modifying a part of a network chunk", ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier), ex);
-			}
-		}
+		modify(this, new Vector3i(minX, minY, minZ), new Vector3i(maxX, maxY, maxZ));
 	}
 
 	protected void deobfuscate(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
@@ -476,7 +1138,19 @@ public class NetworkChunk implements ChunkView {
 	public boolean setBlock(int x, int y, int z, BlockState block) {
 		checkBlockPosition(x, y, z);
 
-		getSection(y >> 4).setBlockState(x & 15, y & 15, z & 15, (net.minecraft.world.level.block.state.BlockState) block);
+		NetworkSection section = getSection(y >> 4);
+		boolean wasOpaque = section.isOpaque(x & 15, y & 15, z & 15);
+		section.setBlockState(x & 15, y & 15, z & 15, (net.minecraft.world.level.block.state.BlockState) block);
+
+		if (this.exposure != null && wasOpaque != section.isOpaque(x & 15, y & 15, z & 15)) {
+			int i = (y >> 4) - this.minSectionY;
+			this.exposure[i] = null;
+			if (i > 0)
+				this.exposure[i - 1] = null;
+			if (i + 1 < this.exposure.length)
+				this.exposure[i + 1] = null;
+		}
+
 		if (this.listener != null)
 			this.listener.addChange(x & 15, y, z & 15);
 		return true;
@@ -491,4 +1165,15 @@ public class NetworkChunk implements ChunkView {
 	public static long asLong(int x, int z) {
 		return (long) x & 4294967295L | ((long) z & 4294967295L) << 32;
 	}
+
+	private static final class Revealed {
+		final net.minecraft.world.level.block.state.BlockState hidden, real;
+		final int dynamism;
+
+		Revealed(net.minecraft.world.level.block.state.BlockState hidden, net.minecraft.world.level.block.state.BlockState real, int dynamism) {
+			this.hidden = hidden;
+			this.real = real;
+			this.dynamism = dynamism;
+		}
+	}
 }
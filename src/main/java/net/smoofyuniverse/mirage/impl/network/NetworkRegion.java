@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network;
+
+import net.smoofyuniverse.mirage.api.volume.BlockView;
+import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
+import net.smoofyuniverse.mirage.util.BlockUtil;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.fluid.FluidState;
+import org.spongepowered.api.world.volume.stream.StreamOptions;
+import org.spongepowered.api.world.volume.stream.VolumeStream;
+import org.spongepowered.common.util.VecHelper;
+import org.spongepowered.math.vector.Vector3i;
+
+import javax.annotation.Nullable;
+
+import static net.smoofyuniverse.mirage.util.BlockUtil.AIR;
+import static net.smoofyuniverse.mirage.util.BlockUtil.NO_FLUID;
+
+/**
+ * A view of the network chunks in a rectangular area of a world, resolved once when the region is created.
+ * Operations spanning several chunks use it so that no chunk lookup happens for each block.
+ * This region must not outlive the operation it was created for since chunks might be unloaded afterward.
+ */
+public class NetworkRegion implements BlockView {
+	private final NetworkWorld world;
+	private final NetworkChunk[] chunks;
+	private final int minChunkX, minChunkZ, sizeX, sizeZ;
+	private final Vector3i blockMin, blockMax, blockSize;
+
+	public NetworkRegion(NetworkWorld world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+		this.world = world;
+		this.minChunkX = minChunkX;
+		this.minChunkZ = minChunkZ;
+		this.sizeX = maxChunkX - minChunkX + 1;
+		this.sizeZ = maxChunkZ - minChunkZ + 1;
+
+		this.chunks = new NetworkChunk[this.sizeX * this.sizeZ];
+		for (int z = 0; z < this.sizeZ; z++) {
+			for (int x = 0; x < this.sizeX; x++)
+				this.chunks[z * this.sizeX + x] = world.chunk(minChunkX + x, minChunkZ + z);
+		}
+
+		this.blockMin = new Vector3i(minChunkX << 4, world.min().y(), minChunkZ << 4);
+		this.blockMax = new Vector3i((maxChunkX << 4) + 15, world.max().y(), (maxChunkZ << 4) + 15);
+		this.blockSize = this.blockMax.sub(this.blockMin).add(Vector3i.ONE);
+	}
+
+	@Nullable
+	public NetworkChunk chunk(int x, int z) {
+		int dx = x - this.minChunkX, dz = z - this.minChunkZ;
+		if (dx < 0 || dx >= this.sizeX || dz < 0 || dz >= this.sizeZ)
+			return this.world.chunk(x, z);
+		return this.chunks[dz * this.sizeX + dx];
+	}
+
+	/**
+	 * @return Whether all chunks of this region are loaded
+	 */
+	public boolean isLoaded() {
+		for (NetworkChunk chunk : this.chunks) {
+			if (chunk == null)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public NetworkWorld world() {
+		return this.world;
+	}
+
+	@Override
+	public InternalWorld storage() {
+		return this.world.storage();
+	}
+
+	@Override
+	public boolean isDynamismEnabled() {
+		return this.world.isDynamismEnabled();
+	}
+
+	@Override
+	public void setDynamism(int x, int y, int z, int distance) {
+		if (this.world.isDynamismEnabled()) {
+			NetworkChunk chunk = chunk(x >> 4, z >> 4);
+			if (chunk != null)
+				chunk.setDynamism(x, y, z, distance);
+		}
+	}
+
+	@Override
+	public int dynamism(int x, int y, int z) {
+		if (!this.world.isDynamismEnabled())
+			return 0;
+
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk == null ? 0 : chunk.dynamism(x, y, z);
+	}
+
+	@Override
+	public boolean deobfuscate(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk != null && chunk.deobfuscate(x, y, z);
+	}
+
+	@Override
+	public void deobfuscateArea(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean silentFail) {
+		this.world.deobfuscateArea(minX, minY, minZ, maxX, maxY, maxZ, silentFail);
+	}
+
+	@Override
+	public void reobfuscateArea(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, boolean silentFail) {
+		this.world.reobfuscateArea(minX, minY, minZ, maxX, maxY, maxZ, silentFail);
+	}
+
+	@Override
+	public boolean isExposed(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		if (chunk == null)
+			return false;
+
+		// y + 1, y - 1
+		if (y == this.blockMax.y() || !chunk.isOpaque(x, y + 1, z) || y == this.blockMin.y() || !chunk.isOpaque(x, y - 1, z))
+			return true;
+
+		// The horizontal neighbors are resolved from the chunks of this region
+		return !isOpaque(x + 1, y, z) || !isOpaque(x - 1, y, z) || !isOpaque(x, y, z + 1) || !isOpaque(x, y, z - 1);
+	}
+
+	@Override
+	public boolean isOpaque(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk != null && chunk.isOpaque(x, y, z);
+	}
+
+	@Override
+	public boolean setBlock(int x, int y, int z, BlockState block) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk != null && chunk.setBlock(x, y, z, block);
+	}
+
+	@Override
+	public boolean removeBlock(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk != null && chunk.removeBlock(x, y, z);
+	}
+
+	@Override
+	public Vector3i min() {
+		return this.blockMin;
+	}
+
+	@Override
+	public Vector3i max() {
+		return this.blockMax;
+	}
+
+	@Override
+	public Vector3i size() {
+		return this.blockSize;
+	}
+
+	@Override
+	public boolean contains(int x, int y, int z) {
+		return VecHelper.inBounds(x, y, z, this.blockMin, this.blockMax);
+	}
+
+	@Override
+	public boolean isAreaAvailable(int x, int y, int z) {
+		return contains(x, y, z) && chunk(x >> 4, z >> 4) != null;
+	}
+
+	@Override
+	public BlockState block(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk == null ? AIR : chunk.block(x, y, z);
+	}
+
+	@Override
+	public FluidState fluid(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk == null ? NO_FLUID : chunk.fluid(x, y, z);
+	}
+
+	@Override
+	public int highestYAt(int x, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		return chunk == null ? 0 : chunk.highestYAt(x, z);
+	}
+
+	@Override
+	public VolumeStream<Mutable, BlockState> blockStateStream(Vector3i min, Vector3i max, StreamOptions options) {
+		return BlockUtil.blockStateStream(this, min, max, options);
+	}
+}
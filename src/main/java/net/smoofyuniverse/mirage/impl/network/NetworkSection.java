@@ -23,111 +23,537 @@
 package net.smoofyuniverse.mirage.impl.network;
 
 import com.mojang.serialization.Codec;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.objects.Reference2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtOps;
 import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.util.BitStorage;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.level.chunk.DataLayer;
-import net.minecraft.world.level.chunk.LevelChunkSection;
-import net.minecraft.world.level.chunk.PalettedContainer;
-import net.minecraft.world.level.chunk.Strategy;
+import net.minecraft.world.level.chunk.*;
+import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
 import net.smoofyuniverse.mirage.impl.internal.InternalSection;
 import net.smoofyuniverse.mirage.impl.network.change.ChunkChangeListener;
-import net.smoofyuniverse.mirage.impl.network.dynamic.DynamicSection;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static net.smoofyuniverse.mirage.impl.network.MemoryTracker.*;
 
 public class NetworkSection {
 	// Redo PalettedContainerFactory#create but without RegistryAccess
 	private static final Strategy<BlockState> blockStatesStrategy = Strategy.createForBlockStates(Block.BLOCK_STATE_REGISTRY);
 	private static final BlockState defaultBlockState = Blocks.AIR.defaultBlockState();
 	private static final Codec<PalettedContainer<BlockState>> blockStatesContainerCodec = PalettedContainer.codecRW(BlockState.CODEC, blockStatesStrategy, defaultBlockState);
+	private static final BlockState[] NO_VALUES = new BlockState[0];
+	// Shared by all sections without any opaque block, never modified
+	private static final long[] NO_OPACITY = new long[64];
+	// Above this number of dynamic positions, dynamism is stored in a dense nibble array
+	private static final int DENSE_DYNAMISM_THRESHOLD = 512;
+	private static final int DENSE_DYNAMISM_SIZE = OBJECT + ARRAY + DataLayer.SIZE;
+	// Estimated sizes of the tags of a serialized section and of a state in its palette
+	private static final int SERIALIZED_SIZE = 4 * (OBJECT + 64), SERIALIZED_STATE_SIZE = 2 * OBJECT + 64;
 
 	private final LevelChunkSection section;
+	// Snapshot of the real states, only used by detached copies
+	private final PalettedContainer<BlockState> snapshot;
 	int minY = 0;
 
-	private PalettedContainer<BlockState> states;
+	// Substitutions applied to the real states, see #replace(Map, int, int). Shared with the copies and never modified.
+	private Map<BlockState, BlockState> substitutions;
+
+	// Only the positions that differ from the substituted real states are stored, although a later substitution might make some entries redundant.
+	// The values are sorted by position and rankBase[w] is the number of modified positions before the word w.
+	private long[] modified;
+	private int[] rankBase;
+	private BlockState[] values = NO_VALUES;
+	private int size;
+
+	// Encoded states as sent to the clients, shared by all packets until the states change
+	private byte[] encoded;
+
+	// Computed on first use
+	private long[] opacity;
+	// Dynamism is either absent, stored as sorted entries (index << 4 | distance) or stored in a dense nibble array
+	private short[] dynEntries;
+	private int dynSize;
 	private DataLayer dynamism;
+	// Dynamic positions grouped by distance, the group d contains dynCount[d] positions
+	private short[][] dynIndex;
 
 	private final int[] dynCount = new int[16];
 	private int nonAirBlocks;
+	private int modCount, realModCount;
+
+	// Positions of the real section changed while a detached copy is being modified, see #trackRealChanges()
+	private boolean trackRealChanges;
+	private long[] realChanges;
 
 	boolean dirty = false;
 
+	// Memory reported to the tracker, detached copies are not tracked
+	private MemoryTracker tracker;
+	private int sectionBytes, dynamismBytes;
+
 	public NetworkSection(LevelChunkSection section) {
 		this.section = section;
+		this.snapshot = null;
 
-		this.states = new PalettedContainer<>(Blocks.AIR.defaultBlockState(), blockStatesStrategy);
-		this.dynamism = new DataLayer();
 		this.dynCount[0] = 4096;
+
+		if (!section.hasOnlyAir())
+			recalculateAirBlocks();
+	}
+
+	private NetworkSection(NetworkSection other) {
+		this.section = other.section;
+		this.snapshot = other.real().copy();
+		this.minY = other.minY;
+		this.substitutions = other.substitutions;
+
+		if (other.size != 0) {
+			this.modified = other.modified.clone();
+			this.rankBase = other.rankBase.clone();
+			this.values = Arrays.copyOf(other.values, other.size);
+			this.size = other.size;
+		}
+
+		if (other.opacity != null)
+			this.opacity = other.opacity == NO_OPACITY ? NO_OPACITY : other.opacity.clone();
+		if (other.dynamism != null)
+			this.dynamism = other.dynamism.copy();
+		if (other.dynSize != 0) {
+			this.dynEntries = Arrays.copyOf(other.dynEntries, other.dynSize);
+			this.dynSize = other.dynSize;
+		}
+		if (other.dynIndex != null) {
+			this.dynIndex = new short[11][];
+			for (int d = 1; d <= 10; d++) {
+				if (other.dynIndex[d] != null)
+					this.dynIndex[d] = other.dynIndex[d].clone();
+			}
+		}
+		System.arraycopy(other.dynCount, 0, this.dynCount, 0, 16);
+		this.nonAirBlocks = other.nonAirBlocks;
+	}
+
+	/**
+	 * Creates a detached copy of this section.
+	 * The copy can be safely modified from another thread and later loaded back using {@link #load(NetworkSection)}.
+	 *
+	 * @return The copy
+	 */
+	public NetworkSection copy() {
+		return new NetworkSection(this);
+	}
+
+	/**
+	 * Replaces the content of this section by the content of the given copy.
+	 *
+	 * @param copy The copy
+	 */
+	public void load(NetworkSection copy) {
+		this.substitutions = copy.substitutions;
+		this.modified = copy.modified;
+		this.rankBase = copy.rankBase;
+		this.values = copy.values;
+		this.size = copy.size;
+		dropEncoded();
+
+		this.opacity = copy.opacity;
+		this.dynEntries = copy.dynEntries;
+		this.dynSize = copy.dynSize;
+		this.dynIndex = copy.dynIndex;
+		this.dynamism = copy.dynamism;
+		System.arraycopy(copy.dynCount, 0, this.dynCount, 0, 16);
+		this.nonAirBlocks = copy.nonAirBlocks;
+		this.modCount++;
+		this.dirty = true;
+		recalculateFootprint();
+	}
+
+	/**
+	 * Sets the tracker to which the memory used by this section is reported.
+	 *
+	 * @param tracker The tracker, or null to stop reporting
+	 */
+	public void setTracker(MemoryTracker tracker) {
+		if (this.tracker != null) {
+			this.tracker.addSections(-this.sectionBytes);
+			this.tracker.addDynamism(-this.dynamismBytes);
+		}
+
+		this.tracker = tracker;
+		this.sectionBytes = 0;
+		this.dynamismBytes = 0;
+		recalculateFootprint();
+	}
+
+	/**
+	 * Recalculates the memory used by this section after a bulk operation.
+	 * Other modifications report the difference of size of the arrays they allocate, see {@link #addSectionBytes(int)}.
+	 */
+	private void recalculateFootprint() {
+		if (this.tracker == null)
+			return;
+
+		int sectionBytes = OBJECT + 64 + sizeOf(this.dynCount) + sizeOf(this.modified) + sizeOf(this.rankBase) + sizeOfValues(this.values)
+				+ sizeOfOpacity(this.opacity) + sizeOf(this.encoded) + sizeOfSubstitutions(this.substitutions);
+		int dynamismBytes = sizeOf(this.dynEntries) + (this.dynamism == null ? 0 : DENSE_DYNAMISM_SIZE);
+		if (this.dynIndex != null) {
+			dynamismBytes += sizeOf(this.dynIndex);
+			for (short[] group : this.dynIndex)
+				dynamismBytes += sizeOf(group);
+		}
+
+		if (sectionBytes != this.sectionBytes) {
+			this.tracker.addSections(sectionBytes - this.sectionBytes);
+			this.sectionBytes = sectionBytes;
+		}
+		if (dynamismBytes != this.dynamismBytes) {
+			this.tracker.addDynamism(dynamismBytes - this.dynamismBytes);
+			this.dynamismBytes = dynamismBytes;
+		}
+	}
+
+	private void addSectionBytes(int delta) {
+		if (this.tracker != null) {
+			this.tracker.addSections(delta);
+			this.sectionBytes += delta;
+		}
+	}
+
+	private void addDynamismBytes(int delta) {
+		if (this.tracker != null) {
+			this.tracker.addDynamism(delta);
+			this.dynamismBytes += delta;
+		}
+	}
+
+	private static int sizeOfValues(BlockState[] values) {
+		return values == NO_VALUES ? 0 : sizeOf(values);
+	}
+
+	private static int sizeOfOpacity(long[] opacity) {
+		return opacity == NO_OPACITY ? 0 : sizeOf(opacity);
+	}
+
+	// The keys and the values of an open hash map
+	private static int sizeOfSubstitutions(Map<BlockState, BlockState> substitutions) {
+		return substitutions == null ? 0 : OBJECT + 32 + 2 * (ARRAY + (HashCommon.arraySize(substitutions.size(), Hash.DEFAULT_LOAD_FACTOR) + 1) * REFERENCE);
+	}
+
+	/**
+	 * @return The number of modifications made to this section, used to detect concurrent modifications
+	 */
+	public int getModCount() {
+		return this.modCount;
+	}
+
+	/**
+	 * @return The number of modifications made to this section, excluding the ones caused by changes of the real section
+	 */
+	public int getViewModCount() {
+		return this.modCount - this.realModCount;
+	}
+
+	/**
+	 * Starts recording the positions of the real section that change, until {@link #stopTrackingRealChanges()} is called.
+	 * Used while a detached copy is being modified, so the copy can be updated when it is loaded back.
+	 */
+	public void trackRealChanges() {
+		this.trackRealChanges = true;
+		this.realChanges = null;
+	}
+
+	/**
+	 * Stops recording the positions of the real section that change.
+	 *
+	 * @return The changed positions as a bitset of {@link #index(int, int, int)}, or null if there is none
+	 */
+	public long[] stopTrackingRealChanges() {
+		long[] changes = this.realChanges;
+		this.trackRealChanges = false;
+		this.realChanges = null;
+		return changes;
+	}
+
+	/**
+	 * @param x The X position, between 0 and 15
+	 * @param y The Y position, between 0 and 15
+	 * @param z The Z position, between 0 and 15
+	 * @return The index of the position in the opacity mask
+	 */
+	public static int index(int x, int y, int z) {
+		return y << 8 | z << 4 | x;
+	}
+
+	/**
+	 * Gets the opacity mask of this section.
+	 * The bit at {@link #index(int, int, int)} is set if the block at this position is opaque.
+	 * The returned array must not be modified.
+	 *
+	 * @return The opacity mask
+	 */
+	public long[] getOpacity() {
+		if (this.opacity == null)
+			recalculateOpacity();
+		return this.opacity;
+	}
+
+	public boolean isOpaque(int x, int y, int z) {
+		int i = index(x, y, z);
+		return (getOpacity()[i >> 6] & (1L << i)) != 0;
+	}
+
+	private void updateOpacity(int i, BlockState state) {
+		if (this.opacity == null)
+			return;
+
+		if (((InternalBlockState) state).isOpaque()) {
+			if (this.opacity == NO_OPACITY) {
+				this.opacity = new long[64];
+				addSectionBytes(sizeOf(this.opacity));
+			}
+			this.opacity[i >> 6] |= 1L << i;
+		} else if (this.opacity != NO_OPACITY) {
+			this.opacity[i >> 6] &= ~(1L << i);
+		}
+	}
+
+	private void recalculateOpacity() {
+		if (this.nonAirBlocks == 0) {
+			this.opacity = NO_OPACITY;
+			recalculateFootprint();
+			return;
+		}
+
+		long[] opacity = new long[64];
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					if (((InternalBlockState) getBlockState(x, y, z)).isOpaque()) {
+						int i = index(x, y, z);
+						opacity[i >> 6] |= 1L << i;
+					}
+				}
+			}
+		}
+		this.opacity = opacity;
+		recalculateFootprint();
 	}
 
 	private void recalculateAirBlocks() {
 		this.nonAirBlocks = 0;
-		this.states.count((state, count) -> {
-			if (!state.isAir())
+		real().count((state, count) -> {
+			if (!substitute(state).isAir())
 				this.nonAirBlocks += count;
 		});
+
+		for (int w = 0, k = 0; k < this.size; w++) {
+			for (long word = this.modified[w]; word != 0; word &= word - 1, k++) {
+				int i = w << 6 | Long.numberOfTrailingZeros(word);
+				boolean baseAir = substitute(getRealState(i)).isAir(), air = this.values[k].isAir();
+				if (baseAir != air)
+					this.nonAirBlocks += baseAir ? 1 : -1;
+			}
+		}
+	}
+
+	/**
+	 * @return The minimum Y of this section
+	 */
+	public int getMinY() {
+		return this.minY;
 	}
 
 	public InternalSection getStorage() {
 		return (InternalSection) this.section;
 	}
 
+	private PalettedContainer<BlockState> real() {
+		return this.snapshot != null ? this.snapshot : this.section.getStates();
+	}
+
+	private BlockState getRealState(int i) {
+		return real().get(i & 15, i >> 8, i >> 4 & 15);
+	}
+
+	public BlockState getRealState(int x, int y, int z) {
+		return real().get(x, y, z);
+	}
+
+	private BlockState substitute(BlockState realState) {
+		if (this.substitutions == null)
+			return realState;
+		BlockState state = this.substitutions.get(realState);
+		return state == null ? realState : state;
+	}
+
+	private boolean isModified(int i) {
+		return this.size != 0 && (this.modified[i >> 6] & (1L << i)) != 0;
+	}
+
+	// Whether the states seen by the clients are exactly the real ones
+	private boolean isUnmodified() {
+		return this.size == 0 && this.substitutions == null;
+	}
+
 	public boolean hasOnlyAir() {
 		return this.nonAirBlocks == 0;
 	}
 
+	/**
+	 * Checks the palettes of this section for any of the given block states.
+	 * This might return true even if none of them is actually present, but never returns false if one is.
+	 *
+	 * @param states The block states
+	 * @return false if this section can't contain any of the given states
+	 */
+	public boolean maybeHas(Set<?> states) {
+		if (real().maybeHas(s -> states.contains(substitute(s))))
+			return true;
+
+		for (int k = 0; k < this.size; k++) {
+			if (states.contains(this.values[k]))
+				return true;
+		}
+		return false;
+	}
+
 	public boolean hasNoDynamism() {
 		return this.dynCount[0] == 4096;
 	}
 
+	/**
+	 * @return The number of positions that differ from the substituted real states
+	 */
+	public int getModifiedCount() {
+		return this.size;
+	}
+
 	public void deobfuscate(ChunkChangeListener listener) {
-		if (hasOnlyAir() && this.section.hasOnlyAir()) {
+		if (isUnmodified())
 			return;
-		}
 
-		acquire();
-		this.nonAirBlocks = 0;
+		if (this.substitutions == null) {
+			for (int w = 0, k = 0; k < this.size; w++) {
+				for (long word = this.modified[w]; word != 0; word &= word - 1, k++) {
+					int i = w << 6 | Long.numberOfTrailingZeros(word);
+					BlockState realState = getRealState(i);
+					if (realState.isAir() != this.values[k].isAir())
+						this.nonAirBlocks += realState.isAir() ? -1 : 1;
+					updateOpacity(i, realState);
 
-		for (int y = 0; y < 16; y++) {
-			for (int z = 0; z < 16; z++) {
-				for (int x = 0; x < 16; x++) {
-					BlockState fakeState = getBlockState(x, y, z), realState = this.section.getBlockState(x, y, z);
-
-					if (!realState.isAir())
-						this.nonAirBlocks++;
-
-					if (fakeState != realState) {
-						this.states.getAndSetUnchecked(x, y, z, realState);
-
-						if (listener != null)
-							listener.addChange(x, this.minY + y, z);
-					}
+					if (listener != null)
+						listener.addChange(i & 15, this.minY + (i >> 8), i >> 4 & 15);
 				}
 			}
+		} else {
+			// Any position might be substituted, the whole section is reported at once
+			for (int i = 0, k = 0; i < 4096; i++) {
+				BlockState realState = getRealState(i);
+				BlockState state = isModified(i) ? this.values[k++] : substitute(realState);
+				if (state == realState)
+					continue;
+
+				if (realState.isAir() != state.isAir())
+					this.nonAirBlocks += realState.isAir() ? -1 : 1;
+				updateOpacity(i, realState);
+			}
+
+			if (listener != null)
+				listener.addSectionChange(this.minY >> 4);
+			this.substitutions = null;
 		}
 
+		this.modified = null;
+		this.rankBase = null;
+		this.values = NO_VALUES;
+		this.size = 0;
+
+		dropEncoded();
+		this.modCount++;
 		this.dirty = true;
-		release();
+		recalculateFootprint();
 	}
 
-	public void acquire() {
-		this.states.acquire();
+	/**
+	 * @param positions A bitset of {@link #index(int, int, int)}
+	 * @return The states at the given positions, in index order
+	 */
+	public BlockState[] getBlockStates(long[] positions) {
+		int n = 0;
+		for (long word : positions)
+			n += Long.bitCount(word);
+
+		BlockState[] states = new BlockState[n];
+		for (int w = 0, k = 0; w < 64; w++) {
+			for (long bits = positions[w]; bits != 0; bits &= bits - 1, k++) {
+				int i = w << 6 | Long.numberOfTrailingZeros(bits);
+				states[k] = getBlockState(i & 15, i >> 8, i >> 4 & 15);
+			}
+		}
+		return states;
 	}
 
 	public BlockState getBlockState(int x, int y, int z) {
-		return this.states.get(x, y, z);
+		if (this.size != 0) {
+			int i = index(x, y, z);
+			if ((this.modified[i >> 6] & (1L << i)) != 0)
+				return this.values[rank(i)];
+		}
+		return substitute(real().get(x, y, z));
 	}
 
-	public void release() {
-		this.states.release();
+	private int rank(int i) {
+		int w = i >> 6;
+		return this.rankBase[w] + Long.bitCount(this.modified[w] & ((1L << i) - 1));
+	}
+
+	private void insert(int i, BlockState state) {
+		if (this.modified == null) {
+			this.modified = new long[64];
+			this.rankBase = new int[64];
+			addSectionBytes(sizeOf(this.modified) + sizeOf(this.rankBase));
+		}
+
+		int r = rank(i);
+		if (this.size == this.values.length) {
+			BlockState[] values = Arrays.copyOf(this.values, Math.max(16, this.size + (this.size >> 1)));
+			addSectionBytes(sizeOf(values) - sizeOfValues(this.values));
+			this.values = values;
+		}
+		System.arraycopy(this.values, r, this.values, r + 1, this.size - r);
+		this.values[r] = state;
+		this.size++;
+
+		int w = i >> 6;
+		this.modified[w] |= 1L << i;
+		for (int k = w + 1; k < 64; k++)
+			this.rankBase[k]++;
+	}
+
+	private void remove(int i) {
+		int r = rank(i);
+		System.arraycopy(this.values, r + 1, this.values, r, this.size - r - 1);
+		this.values[--this.size] = null;
+
+		int w = i >> 6;
+		this.modified[w] &= ~(1L << i);
+		for (int k = w + 1; k < 64; k++)
+			this.rankBase[k]--;
 	}
 
 	public boolean deobfuscate(ChunkChangeListener listener, int x, int y, int z) {
-		if (setBlockState(x, y, z, this.section.getBlockState(x, y, z))) {
+		if (setBlockState(x, y, z, real().get(x, y, z))) {
 			setDynamism(x, y, z, 0);
 			if (listener != null) {
 				listener.updateDynamism(x, this.minY + y, z, 0);
@@ -139,97 +565,644 @@ public class NetworkSection {
 	}
 
 	public boolean setBlockState(int x, int y, int z, BlockState state) {
-		BlockState oldState = this.states.getAndSetUnchecked(x, y, z, state);
+		int i = index(x, y, z);
+		boolean isModified = isModified(i);
+		BlockState baseState = substitute(real().get(x, y, z));
+		BlockState oldState = isModified ? this.values[rank(i)] : baseState;
 		if (oldState == state)
 			return false;
 
+		if (state == baseState)
+			remove(i);
+		else if (isModified)
+			this.values[rank(i)] = state;
+		else
+			insert(i, state);
+
+		onChange(i, oldState, state);
+		return true;
+	}
+
+	/**
+	 * Updates this section after a block of the real section has been changed.
+	 * The real state is revealed at this position.
+	 *
+	 * @param x        The X position, between 0 and 15
+	 * @param y        The Y position, between 0 and 15
+	 * @param z        The Z position, between 0 and 15
+	 * @param oldState The previous real state
+	 * @param state    The new real state
+	 */
+	public void onRealChange(int x, int y, int z, BlockState oldState, BlockState state) {
+		int i = index(x, y, z);
+		if (this.trackRealChanges) {
+			if (this.realChanges == null)
+				this.realChanges = new long[64];
+			this.realChanges[i >> 6] |= 1L << i;
+		}
+
+		reveal(i, isModified(i) ? this.values[rank(i)] : substitute(oldState), state);
+	}
+
+	/**
+	 * Reveals the real state at a position of the real section that changed while a detached copy was being modified.
+	 * Used after the copy has been loaded back, see {@link #trackRealChanges()}.
+	 *
+	 * @param x             The X position, between 0 and 15
+	 * @param y             The Y position, between 0 and 15
+	 * @param z             The Z position, between 0 and 15
+	 * @param previousState The state of the copy at this position
+	 */
+	public void revealRealChange(int x, int y, int z, BlockState previousState) {
+		reveal(index(x, y, z), previousState, real().get(x, y, z));
+	}
+
+	private void reveal(int i, BlockState previousState, BlockState state) {
+		if (isModified(i))
+			remove(i);
+		// The real state must be seen even if it is substituted
+		if (substitute(state) != state)
+			insert(i, state);
+
+		if (previousState != state) {
+			onChange(i, previousState, state);
+			this.realModCount++;
+		}
+	}
+
+	private void onChange(int i, BlockState oldState, BlockState state) {
+		updateOpacity(i, state);
+
 		if (!oldState.isAir())
 			this.nonAirBlocks--;
 		if (!state.isAir())
 			this.nonAirBlocks++;
 
+		dropEncoded();
+		this.modCount++;
+		this.dirty = true;
+	}
+
+	/**
+	 * Replaces block states according to the given mapping, between two heights relative to this section.
+	 * When the whole section is concerned, the mapping is composed with the substitutions of the real states
+	 * and only the overlay values are rewritten, see {@link #substitute(Map, ChunkChangeListener)}.
+	 * Otherwise, the real states are read directly from their storage and the overlay is rebuilt in a single pass in index order.
+	 *
+	 * @param mapping  The mapping
+	 * @param minY     The minimum Y, between 0 and 15
+	 * @param maxY     The maximum Y, between 0 and 15
+	 * @param listener The listener to which the changes are reported, or null
+	 * @return Whether any block has been replaced
+	 */
+	public boolean replace(Map<BlockState, BlockState> mapping, int minY, int maxY, ChunkChangeListener listener) {
+		if (!maybeHas(mapping.keySet()))
+			return false;
+
+		if (minY == 0 && maxY == 15)
+			return substitute(mapping, listener);
+
+		PalettedContainer.Data<BlockState> data = real().data;
+		Palette<BlockState> palette = data.palette();
+		BitStorage storage = data.storage();
+
+		// The global palette is too large to be mapped entirely
+		int paletteSize = palette.getSize();
+		BlockState[] replacements = null;
+		if (paletteSize <= 256) {
+			replacements = new BlockState[paletteSize];
+			for (int id = 0; id < paletteSize; id++)
+				replacements[id] = mapping.get(substitute(palette.valueFor(id)));
+		}
+
+		long[] modified = new long[64];
+		BlockState[] values = new BlockState[Math.max(16, this.size)];
+		int size = 0, k = 0;
+		boolean changed = false;
+
+		int minIndex = minY << 8, maxIndex = (maxY << 8) | 255;
+		for (int i = 0; i < 4096; i++) {
+			boolean inRange = i >= minIndex && i <= maxIndex;
+			BlockState state;
+
+			if (isModified(i)) {
+				BlockState oldState = this.values[k++];
+				state = inRange ? mapping.getOrDefault(oldState, oldState) : oldState;
+				if (state != oldState) {
+					onReplace(i, oldState, state, listener);
+					changed = true;
+					if (state == substitute(palette.valueFor(storage.get(i))))
+						continue;
+				}
+			} else {
+				if (!inRange)
+					continue;
+
+				int id = storage.get(i);
+				BlockState baseState = substitute(palette.valueFor(id));
+				state = replacements != null ? replacements[id] : mapping.get(baseState);
+				if (state == null || state == baseState)
+					continue;
+
+				onReplace(i, baseState, state, listener);
+				changed = true;
+			}
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, size + (size >> 1));
+			values[size++] = state;
+			modified[i >> 6] |= 1L << i;
+		}
+
+		if (!changed)
+			return false;
+
+		if (size == 0) {
+			this.modified = null;
+			this.rankBase = null;
+			this.values = NO_VALUES;
+		} else {
+			int[] rankBase = new int[64];
+			for (int w = 0, r = 0; w < 64; w++) {
+				rankBase[w] = r;
+				r += Long.bitCount(modified[w]);
+			}
+			this.modified = modified;
+			this.rankBase = rankBase;
+			this.values = values;
+		}
+		this.size = size;
+
+		dropEncoded();
+		this.modCount++;
 		this.dirty = true;
+		recalculateFootprint();
 		return true;
 	}
 
-	public int getMaxDynamism() {
-		for (int i = 10; i >= 0; i--) {
-			if (this.dynCount[i] != 0)
-				return i;
+	/**
+	 * Applies the mapping to the whole section in O(palette + overlay) instead of O(4096).
+	 * The mapping is composed with the substitutions, so the real states are resolved through it on read.
+	 * The air count and the opacity are only recalculated if a present state changes of kind.
+	 */
+	private boolean substitute(Map<BlockState, BlockState> mapping, ChunkChangeListener listener) {
+		Map<BlockState, BlockState> oldSubstitutions = this.substitutions == null ? Map.of() : this.substitutions;
+		Reference2ReferenceOpenHashMap<BlockState, BlockState> substitutions = new Reference2ReferenceOpenHashMap<>(oldSubstitutions.size() + mapping.size());
+		for (Map.Entry<BlockState, BlockState> e : oldSubstitutions.entrySet()) {
+			BlockState state = mapping.getOrDefault(e.getValue(), e.getValue());
+			if (state != e.getKey())
+				substitutions.put(e.getKey(), state);
+		}
+		for (Map.Entry<BlockState, BlockState> e : mapping.entrySet()) {
+			if (!oldSubstitutions.containsKey(e.getKey()) && e.getValue() != e.getKey())
+				substitutions.put(e.getKey(), e.getValue());
+		}
+
+		Set<BlockState> changedStates = new ReferenceOpenHashSet<>(), airStates = new ReferenceOpenHashSet<>(), opacityStates = new ReferenceOpenHashSet<>();
+		for (BlockState realState : substitutions.keySet())
+			compareSubstitution(realState, oldSubstitutions, substitutions, changedStates, airStates, opacityStates);
+		for (BlockState realState : oldSubstitutions.keySet()) {
+			if (!substitutions.containsKey(realState))
+				compareSubstitution(realState, oldSubstitutions, substitutions, changedStates, airStates, opacityStates);
+		}
+
+		PalettedContainer<BlockState> real = real();
+		boolean changed = !changedStates.isEmpty() && real.maybeHas(changedStates::contains);
+		boolean recount = changed && !airStates.isEmpty() && real.maybeHas(airStates::contains);
+		boolean reopacity = changed && !opacityStates.isEmpty() && real.maybeHas(opacityStates::contains);
+
+		for (int w = 0, k = 0; k < this.size; w++) {
+			for (long word = this.modified[w]; word != 0; word &= word - 1, k++) {
+				BlockState oldState = this.values[k], state = mapping.getOrDefault(oldState, oldState);
+				if (state == oldState)
+					continue;
+
+				int i = w << 6 | Long.numberOfTrailingZeros(word);
+				this.values[k] = state;
+				onReplace(i, oldState, state, null);
+				changed = true;
+			}
 		}
-		return 0;
+
+		if (!changed)
+			return false;
+
+		this.substitutions = substitutions.isEmpty() ? null : substitutions;
+		if (recount)
+			recalculateAirBlocks();
+		if (reopacity)
+			this.opacity = null;
+
+		if (listener != null)
+			listener.addSectionChange(this.minY >> 4);
+
+		dropEncoded();
+		this.modCount++;
+		this.dirty = true;
+		recalculateFootprint();
+		return true;
+	}
+
+	private static void compareSubstitution(BlockState realState, Map<BlockState, BlockState> oldSubstitutions, Map<BlockState, BlockState> substitutions,
+											Set<BlockState> changedStates, Set<BlockState> airStates, Set<BlockState> opacityStates) {
+		BlockState oldState = oldSubstitutions.getOrDefault(realState, realState), state = substitutions.getOrDefault(realState, realState);
+		if (oldState == state)
+			return;
+
+		changedStates.add(realState);
+		if (oldState.isAir() != state.isAir())
+			airStates.add(realState);
+		if (((InternalBlockState) oldState).isOpaque() != ((InternalBlockState) state).isOpaque())
+			opacityStates.add(realState);
+	}
+
+	private void onReplace(int i, BlockState oldState, BlockState state, ChunkChangeListener listener) {
+		updateOpacity(i, state);
+		if (oldState.isAir() != state.isAir())
+			this.nonAirBlocks += state.isAir() ? -1 : 1;
+		if (listener != null)
+			listener.addChange(i & 15, this.minY + (i >> 8), i >> 4 & 15);
 	}
 
 	public void setDynamism(int x, int y, int z, int distance) {
 		int prevDistance = getDynamism(x, y, z);
 		if (prevDistance != distance) {
-			this.dynamism.set(x, y, z, distance);
+			if (this.dynamism != null) {
+				this.dynamism.set(x, y, z, distance);
+			} else {
+				int i = index(x, y, z), k = findDynamism(i);
+				if (distance == 0) {
+					System.arraycopy(this.dynEntries, k + 1, this.dynEntries, k, this.dynSize - k - 1);
+					this.dynSize--;
+				} else if (k >= 0) {
+					this.dynEntries[k] = (short) (i << 4 | distance);
+				} else if (this.dynSize == DENSE_DYNAMISM_THRESHOLD) {
+					promoteDynamism();
+					this.dynamism.set(x, y, z, distance);
+				} else {
+					k = -(k + 1);
+					if (this.dynEntries == null || this.dynSize == this.dynEntries.length) {
+						short[] entries = this.dynEntries == null ? new short[16]
+								: Arrays.copyOf(this.dynEntries, Math.min(DENSE_DYNAMISM_THRESHOLD, this.dynSize + (this.dynSize >> 1)));
+						addDynamismBytes(sizeOf(entries) - sizeOf(this.dynEntries));
+						this.dynEntries = entries;
+					}
+					System.arraycopy(this.dynEntries, k, this.dynEntries, k + 1, this.dynSize - k);
+					this.dynEntries[k] = (short) (i << 4 | distance);
+					this.dynSize++;
+				}
+			}
+
+			int i = index(x, y, z);
+			unindexDynamism(i, prevDistance);
+			indexDynamism(i, distance);
+
 			this.dynCount[prevDistance]--;
 			this.dynCount[distance]++;
+			if (hasNoDynamism())
+				releaseDynamism();
+
+			this.modCount++;
 			this.dirty = true;
 		}
 	}
 
 	public int getDynamism(int x, int y, int z) {
-		return this.dynamism.get(x, y, z);
+		if (this.dynamism != null)
+			return this.dynamism.get(x, y, z);
+		if (this.dynSize == 0)
+			return 0;
+
+		int k = findDynamism(index(x, y, z));
+		return k < 0 ? 0 : this.dynEntries[k] & 15;
+	}
+
+	// Binary search of the entry at the given index
+	private int findDynamism(int i) {
+		int low = 0, high = this.dynSize - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1, midIndex = (this.dynEntries[mid] & 0xFFFF) >>> 4;
+			if (midIndex < i)
+				low = mid + 1;
+			else if (midIndex > i)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	private void promoteDynamism() {
+		DataLayer dynamism = new DataLayer();
+		for (int k = 0; k < this.dynSize; k++) {
+			int e = this.dynEntries[k] & 0xFFFF, i = e >>> 4;
+			dynamism.set(i & 15, i >> 8, i >> 4 & 15, e & 15);
+		}
+		addDynamismBytes(DENSE_DYNAMISM_SIZE - sizeOf(this.dynEntries));
+		this.dynamism = dynamism;
+		this.dynEntries = null;
+		this.dynSize = 0;
+	}
+
+	private void demoteDynamism() {
+		int n = 4096 - this.dynCount[0];
+		short[] entries = new short[Math.max(16, n)];
+		for (int i = 0, k = 0; k < n; i++) {
+			int d = this.dynamism.get(i & 15, i >> 8, i >> 4 & 15);
+			if (d != 0)
+				entries[k++] = (short) (i << 4 | d);
+		}
+		this.dynEntries = entries;
+		this.dynSize = n;
+		this.dynamism = null;
+	}
+
+	private void releaseDynamism() {
+		addDynamismBytes(-this.dynamismBytes);
+		this.dynamism = null;
+		this.dynEntries = null;
+		this.dynSize = 0;
+		this.dynIndex = null;
+	}
+
+	// Must be called before the update of dynCount
+	private void indexDynamism(int i, int distance) {
+		if (distance == 0)
+			return;
+
+		if (this.dynIndex == null) {
+			this.dynIndex = new short[11][];
+			addDynamismBytes(sizeOf(this.dynIndex));
+		}
+
+		short[] group = this.dynIndex[distance];
+		int n = this.dynCount[distance];
+		if (group == null || n == group.length) {
+			short[] newGroup = group == null ? new short[16] : Arrays.copyOf(group, Math.min(4096, n + (n >> 1)));
+			addDynamismBytes(sizeOf(newGroup) - sizeOf(group));
+			this.dynIndex[distance] = group = newGroup;
+		}
+		group[n] = (short) i;
+	}
+
+	// Must be called before the update of dynCount
+	private void unindexDynamism(int i, int distance) {
+		if (distance == 0)
+			return;
+
+		short[] group = this.dynIndex[distance];
+		int last = this.dynCount[distance] - 1;
+		for (int k = last; k >= 0; k--) {
+			if (group[k] == i) {
+				group[k] = group[last];
+				return;
+			}
+		}
+	}
+
+	private void rebuildDynamismIndex() {
+		if (hasNoDynamism()) {
+			this.dynIndex = null;
+			return;
+		}
+
+		this.dynIndex = new short[11][];
+		for (int d = 1; d <= 10; d++) {
+			if (this.dynCount[d] != 0)
+				this.dynIndex[d] = new short[this.dynCount[d]];
+		}
+
+		int[] sizes = new int[11];
+		if (this.dynamism == null) {
+			for (int k = 0; k < this.dynSize; k++) {
+				int e = this.dynEntries[k] & 0xFFFF, d = e & 15;
+				this.dynIndex[d][sizes[d]++] = (short) (e >>> 4);
+			}
+		} else {
+			for (int i = 0; i < 4096; i++) {
+				int d = this.dynamism.get(i & 15, i >> 8, i >> 4 & 15);
+				if (d != 0)
+					this.dynIndex[d][sizes[d]++] = (short) i;
+			}
+		}
 	}
 
 	public void clearDynamism() {
-		this.dynamism = new DataLayer();
+		releaseDynamism();
 		Arrays.fill(this.dynCount, 0);
 		this.dynCount[0] = 4096;
+		this.modCount++;
 		this.dirty = true;
+		recalculateFootprint();
 	}
 
-	public void collectDynamicPositions(DynamicSection section) {
-		if (this.hasNoDynamism())
-			return;
+	/**
+	 * @param distance The dynamism distance, between 1 and 10
+	 * @return The number of positions having this distance
+	 */
+	public int getDynamicCount(int distance) {
+		return this.dynCount[distance];
+	}
 
-		for (int y = 0; y < 16; y++) {
-			for (int z = 0; z < 16; z++) {
-				for (int x = 0; x < 16; x++) {
-					int d = getDynamism(x, y, z);
-					if (d != 0)
-						section.add(x, y, z, d);
-				}
+	/**
+	 * Gets the positions having the given dynamism distance.
+	 * Only the first {@link #getDynamicCount(int)} elements are valid, each one is an {@link #index(int, int, int)}.
+	 * The returned array must not be modified.
+	 *
+	 * @param distance The dynamism distance, between 1 and 10
+	 * @return The positions, or null if there is none
+	 */
+	public short[] getDynamicPositions(int distance) {
+		return this.dynIndex == null ? null : this.dynIndex[distance];
+	}
+
+	/**
+	 * Creates a container with the substituted real states merged with the modified ones.
+	 *
+	 * @return The merged states
+	 */
+	private PalettedContainer<BlockState> merge() {
+		PalettedContainer<BlockState> states = real().copy();
+		if (this.substitutions != null && states.maybeHas(this.substitutions::containsKey)) {
+			for (int i = 0; i < 4096; i++) {
+				int x = i & 15, y = i >> 8, z = i >> 4 & 15;
+				BlockState state = this.substitutions.get(states.get(x, y, z));
+				if (state != null)
+					states.getAndSetUnchecked(x, y, z, state);
+			}
+		}
+		for (int w = 0, k = 0; k < this.size; w++) {
+			for (long word = this.modified[w]; word != 0; word &= word - 1, k++) {
+				int i = w << 6 | Long.numberOfTrailingZeros(word);
+				states.getAndSetUnchecked(i & 15, i >> 8, i >> 4 & 15, this.values[k]);
 			}
 		}
+		return states;
+	}
+
+	private static byte[] encode(PalettedContainer<BlockState> states, int nonAirBlocks) {
+		byte[] bytes = new byte[2 + states.getSerializedSize()];
+		FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.wrappedBuffer(bytes));
+		buf.writerIndex(0);
+		buf.writeShort(nonAirBlocks);
+		states.write(buf);
+		return bytes;
+	}
+
+	private byte[] getEncoded() {
+		if (this.encoded == null) {
+			this.encoded = encode(isUnmodified() ? real() : merge(), this.nonAirBlocks);
+			addSectionBytes(sizeOf(this.encoded));
+		}
+		return this.encoded;
+	}
+
+	/**
+	 * Encodes the states as sent to a client to which some positions are revealed.
+	 * The result is specific to the client and thus not cached.
+	 *
+	 * @param revealed The revealed positions, as a bitset of x << 8 | z << 4 | y
+	 * @return The encoded states
+	 */
+	public byte[] encode(long[] revealed) {
+		if (isUnmodified())
+			return getEncoded();
+
+		PalettedContainer<BlockState> real = real(), states = merge();
+		int nonAirBlocks = this.nonAirBlocks;
+		for (int w = 0; w < 64; w++) {
+			for (long bits = revealed[w]; bits != 0; bits &= bits - 1) {
+				int pos = w << 6 | Long.numberOfTrailingZeros(bits);
+				int x = pos >> 8 & 15, y = pos & 15, z = pos >> 4 & 15;
+				BlockState realState = real.get(x, y, z);
+				if (getBlockState(x, y, z) == realState)
+					continue;
+
+				if (states.getAndSetUnchecked(x, y, z, realState).isAir() != realState.isAir())
+					nonAirBlocks += realState.isAir() ? -1 : 1;
+			}
+		}
+		return encode(states, nonAirBlocks);
+	}
+
+	/**
+	 * Releases the encoded states, they will be encoded again when needed.
+	 */
+	public void releaseEncoded() {
+		dropEncoded();
+	}
+
+	private void dropEncoded() {
+		if (this.encoded != null) {
+			addSectionBytes(-sizeOf(this.encoded));
+			this.encoded = null;
+		}
 	}
 
 	public void write(FriendlyByteBuf buf) {
-		buf.writeShort(this.nonAirBlocks);
-		this.states.write(buf);
+		buf.writeBytes(getEncoded());
 	}
 
 	public int getSerializedSize() {
-		return 2 + this.states.getSerializedSize();
+		return getEncoded().length;
 	}
 
 	public CompoundTag serialize() {
 		CompoundTag tag = new CompoundTag();
 		tag.putByte("Y", (byte) (this.minY >> 4));
 
-		tag.put("BlockStates", blockStatesContainerCodec.encodeStart(NbtOps.INSTANCE, this.states).getOrThrow());
-		tag.putByteArray("Dynamism", Arrays.copyOf(this.dynamism.getData(), 2048));
+		tag.put("BlockStates", blockStatesContainerCodec.encodeStart(NbtOps.INSTANCE, isUnmodified() ? real() : merge()).getOrThrow());
+		if (this.dynamism != null) {
+			tag.putByteArray("Dynamism", Arrays.copyOf(this.dynamism.getData(), 2048));
+		} else if (this.dynSize != 0) {
+			byte[] entries = new byte[this.dynSize << 1];
+			for (int k = 0; k < this.dynSize; k++) {
+				entries[k << 1] = (byte) (this.dynEntries[k] >> 8);
+				entries[k << 1 | 1] = (byte) this.dynEntries[k];
+			}
+			tag.putByteArray("DynamicEntries", entries);
+		}
 
 		return tag;
 	}
 
 	public void deserialize(CompoundTag tag) {
-		this.states = blockStatesContainerCodec.parse(NbtOps.INSTANCE, tag.getCompound("BlockStates").get()).getOrThrow();
+		PalettedContainer<BlockState> states = blockStatesContainerCodec.parse(NbtOps.INSTANCE, tag.getCompound("BlockStates").get()).getOrThrow();
+
+		this.substitutions = null;
+		this.modified = null;
+		this.rankBase = null;
+		this.values = NO_VALUES;
+		this.size = 0;
+		dropEncoded();
+
+		PalettedContainer<BlockState> real = real();
+		for (int y = 0; y < 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++) {
+					BlockState state = states.get(x, y, z);
+					if (state != real.get(x, y, z))
+						insert(index(x, y, z), state);
+				}
+			}
+		}
+
 		recalculateAirBlocks();
+		this.opacity = null;
 
-        this.dynamism = new DataLayer(tag.getByteArray("Dynamism").get());
+		releaseDynamism();
+		Optional<byte[]> dense = tag.getByteArray("Dynamism");
+		if (dense.isPresent()) {
+			this.dynamism = new DataLayer(dense.get());
+		} else {
+			byte[] entries = tag.getByteArray("DynamicEntries").orElse(null);
+			if (entries != null && entries.length != 0) {
+				this.dynSize = entries.length >> 1;
+				this.dynEntries = new short[this.dynSize];
+				for (int k = 0; k < this.dynSize; k++)
+					this.dynEntries[k] = (short) (entries[k << 1] << 8 | entries[k << 1 | 1] & 0xFF);
+			}
+		}
 		recalculateDynCount();
+		if (hasNoDynamism()) {
+			releaseDynamism();
+		} else {
+			// Older saves might store few dynamic positions in a dense array
+			if (this.dynamism != null && 4096 - this.dynCount[0] <= DENSE_DYNAMISM_THRESHOLD)
+				demoteDynamism();
+			rebuildDynamismIndex();
+		}
 
+		this.modCount++;
 		this.dirty = true;
+		recalculateFootprint();
+	}
+
+	/**
+	 * Estimates the memory used by a tag produced by {@link #serialize()} from its arrays and its palette,
+	 * without walking all its content like {@link CompoundTag#sizeInBytes()}.
+	 *
+	 * @param tag The serialized section
+	 * @return The estimated size in bytes
+	 */
+	public static int estimateSize(CompoundTag tag) {
+		CompoundTag states = tag.getCompoundOrEmpty("BlockStates");
+		return SERIALIZED_SIZE + sizeOf(states.getLongArray("data").orElse(null))
+				+ states.getListOrEmpty("palette").size() * SERIALIZED_STATE_SIZE
+				+ sizeOf(tag.getByteArray("Dynamism").orElse(null)) + sizeOf(tag.getByteArray("DynamicEntries").orElse(null));
 	}
 
 	private void recalculateDynCount() {
 		Arrays.fill(this.dynCount, 0);
-		for (byte b : this.dynamism.getData()) {
-			this.dynCount[b & 15]++;
-			this.dynCount[(b >> 4) & 15]++;
+		if (this.dynamism != null) {
+			for (byte b : this.dynamism.getData()) {
+				this.dynCount[b & 15]++;
+				this.dynCount[(b >> 4) & 15]++;
+			}
+		} else {
+			this.dynCount[0] = 4096 - this.dynSize;
+			for (int k = 0; k < this.dynSize; k++)
+				this.dynCount[this.dynEntries[k] & 15]++;
 		}
 	}
 }
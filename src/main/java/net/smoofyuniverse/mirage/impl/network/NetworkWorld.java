@@ -23,9 +23,20 @@
 package net.smoofyuniverse.mirage.impl.network;
 
 import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMaps;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import net.minecraft.core.BlockPos;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.level.ChunkTrackingView;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.chunk.storage.RegionStorageInfo;
 import net.smoofyuniverse.mirage.Mirage;
@@ -35,7 +46,9 @@ import net.smoofyuniverse.mirage.api.modifier.ConfiguredModifier;
 import net.smoofyuniverse.mirage.api.volume.BlockStorage;
 import net.smoofyuniverse.mirage.api.volume.ChunkView;
 import net.smoofyuniverse.mirage.api.volume.ChunkView.State;
+import net.smoofyuniverse.mirage.api.volume.MemoryUsage;
 import net.smoofyuniverse.mirage.api.volume.WorldView;
+import net.smoofyuniverse.mirage.config.world.DeobfuscationConfig;
 import net.smoofyuniverse.mirage.config.world.MainConfig.Resolved;
 import net.smoofyuniverse.mirage.config.world.WorldConfig;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
@@ -55,9 +68,9 @@ import org.spongepowered.math.vector.Vector3i;
 
 import javax.annotation.Nullable;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.Random;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -69,16 +82,23 @@ import static net.smoofyuniverse.mirage.util.BlockUtil.NO_FLUID;
  * Represents the world viewed for the network (aka online players)
  */
 public class NetworkWorld implements WorldView {
+	// Dropped chunks are kept for 30 seconds, so the chunks at the edge of the view of a moving player are not evicted repeatedly
+	private static final int EVICTION_DELAY = 600;
+
 	private final Long2ObjectMap<CompoundTag> chunksToSave = new Long2ObjectOpenHashMap<>();
+	private final LongSet waitingChunks = new LongOpenHashSet(), readyChunks = new LongOpenHashSet();
+	// Chunks that no player could see anymore, with the game time at which they have been dropped
+	private final Long2LongMap droppedChunks = new Long2LongOpenHashMap();
 	private final Vector3i blockMin, blockMax, blockSize;
 	private final InternalWorld world;
 
 	private NetworkRegionCache cache;
 	private WorldConfig config;
+	private List<ModifierGroup> modifierGroups;
 	private Signature signature;
 	private boolean enabled, dynamismEnabled;
 
-	private final Random random = new Random();
+	private final MemoryTracker memory = new MemoryTracker();
 
 	public NetworkWorld(InternalWorld world) {
 		this.world = world;
@@ -101,6 +121,7 @@ public class NetworkWorld implements WorldView {
 		if (this.config == null)
 			this.config = WorldConfig.DISABLED;
 
+		this.modifierGroups = ModifierGroup.of(this.config.modifiers);
 		this.enabled = this.config.main.enabled;
 		this.dynamismEnabled = this.enabled && this.config.main.dynamism;
 	}
@@ -188,12 +209,209 @@ public class NetworkWorld implements WorldView {
 		this.config = new WorldConfig(main, modifiers, obfuscationSeed, fakeSeed);
 	}
 
+	/**
+	 * Registers a chunk waiting for its neighbors to be loaded before being obfuscated.
+	 * Must be called from the main thread.
+	 */
+	public void addWaitingChunk(int x, int z) {
+		this.waitingChunks.add(asLong(x, z));
+	}
+
+	public void removeWaitingChunk(int x, int z) {
+		this.waitingChunks.remove(asLong(x, z));
+	}
+
+	/**
+	 * Wakes up the waiting neighbors of a chunk that has just been loaded.
+	 * Must be called from the main thread.
+	 */
+	public void onChunkLoaded(int x, int z) {
+		if (this.waitingChunks.isEmpty())
+			return;
+
+		wakeUp(x + 1, z);
+		wakeUp(x - 1, z);
+		wakeUp(x, z + 1);
+		wakeUp(x, z - 1);
+	}
+
+	private void wakeUp(int x, int z) {
+		if (this.waitingChunks.remove(asLong(x, z)))
+			markReady(x, z);
+	}
+
+	/**
+	 * Marks a chunk as ready to be obfuscated or to publish its asynchronous obfuscation.
+	 * This method is thread-safe.
+	 */
+	public void markReady(int x, int z) {
+		synchronized (this.readyChunks) {
+			this.readyChunks.add(asLong(x, z));
+		}
+	}
+
+	/**
+	 * Obfuscates the ready chunks of all worlds then evicts their dropped chunks, within a time budget shared by all worlds.
+	 * The budget is the highest one configured among the enabled worlds.
+	 * Must be called from the main thread once per tick.
+	 *
+	 * @param worlds The worlds
+	 */
+	public static void tick(List<NetworkWorld> worlds) {
+		int budget = 0;
+		for (NetworkWorld world : worlds) {
+			if (world.enabled)
+				budget = Math.max(budget, world.config.main.obfuscationBudget);
+		}
+		if (budget == 0)
+			return;
+
+		long deadline = System.nanoTime() + budget * 1_000_000L;
+		obfuscateReadyChunks(worlds, deadline);
+		for (NetworkWorld world : worlds)
+			world.evictDroppedChunks(deadline);
+	}
+
+	/**
+	 * Obfuscates the chunks marked as ready in all worlds, nearest to a player tracking them first, until the deadline.
+	 * Chunks that could not be processed in time are kept for the next tick.
+	 */
+	private static void obfuscateReadyChunks(List<NetworkWorld> worlds, long deadline) {
+		long[][] positions = new long[worlds.size()][];
+		int count = 0;
+		for (int w = 0; w < positions.length; w++) {
+			positions[w] = worlds.get(w).takeReadyChunks();
+			count += positions[w].length;
+		}
+		if (count == 0)
+			return;
+
+		// Sort on the distance in the upper bits, keeping the world and the original index in the lower bits
+		int indexBits = 32 - Integer.numberOfLeadingZeros(count);
+		long[] keys = new long[count];
+		int[] worldIndex = new int[count], posIndex = new int[count];
+		for (int w = 0, k = 0; w < positions.length; w++) {
+			long[] worldPositions = positions[w];
+			if (worldPositions.length == 0)
+				continue;
+
+			long[] distances = worlds.get(w).distancesToTrackingPlayers(worldPositions);
+			for (int i = 0; i < worldPositions.length; i++, k++) {
+				worldIndex[k] = w;
+				posIndex[k] = i;
+				keys[k] = Math.min(distances[i], Integer.MAX_VALUE) << indexBits | k;
+			}
+		}
+		Arrays.sort(keys);
+
+		long mask = (1L << indexBits) - 1;
+		int i = 0;
+		while (i < count) {
+			int k = (int) (keys[i++] & mask);
+			long pos = positions[worldIndex[k]][posIndex[k]];
+			NetworkChunk chunk = worlds.get(worldIndex[k]).chunk((int) pos, (int) (pos >>> 32));
+			if (chunk != null && chunk.state() == State.OBFUSCATION_REQUESTED)
+				chunk.obfuscateLater();
+
+			if (System.nanoTime() >= deadline)
+				break;
+		}
+
+		for (; i < count; i++) {
+			int k = (int) (keys[i] & mask);
+			long pos = positions[worldIndex[k]][posIndex[k]];
+			worlds.get(worldIndex[k]).markReady((int) pos, (int) (pos >>> 32));
+		}
+	}
+
+	private long[] takeReadyChunks() {
+		synchronized (this.readyChunks) {
+			if (this.readyChunks.isEmpty())
+				return new long[0];
+			long[] positions = this.readyChunks.toLongArray();
+			this.readyChunks.clear();
+			return positions;
+		}
+	}
+
+	/**
+	 * Computes for each chunk the squared distance to the nearest player tracking it, including the players still waiting for it.
+	 * Chunks tracked by no player get the highest distance.
+	 */
+	private long[] distancesToTrackingPlayers(long[] positions) {
+		long[] distances = new long[positions.length];
+		Arrays.fill(distances, Long.MAX_VALUE);
+
+		List<ServerPlayer> players = ((ServerLevel) this.world).players();
+		for (ServerPlayer player : players) {
+			ChunkTrackingView view = player.getChunkTrackingView();
+			int playerX = player.getBlockX() >> 4, playerZ = player.getBlockZ() >> 4;
+
+			for (int i = 0; i < positions.length; i++) {
+				int x = (int) positions[i], z = (int) (positions[i] >>> 32);
+				if (view.contains(x, z)) {
+					long dx = x - playerX, dz = z - playerZ;
+					distances[i] = Math.min(distances[i], dx * dx + dz * dz);
+				}
+			}
+		}
+		return distances;
+	}
+
+	/**
+	 * Schedules the eviction of a chunk that no player can see anymore.
+	 * The chunk is evicted after a delay if no player can see it at that time.
+	 * Must be called from the main thread.
+	 */
+	public void scheduleEviction(int x, int z) {
+		this.droppedChunks.put(asLong(x, z), ((ServerLevel) this.world).getGameTime());
+	}
+
+	/**
+	 * Cancels the eviction of a chunk, because it is sent to a player or unloaded.
+	 * Must be called from the main thread.
+	 */
+	public void cancelEviction(int x, int z) {
+		if (!this.droppedChunks.isEmpty())
+			this.droppedChunks.remove(asLong(x, z));
+	}
+
+	/**
+	 * Evicts the chunks dropped long enough ago, until the deadline.
+	 * At least one chunk is evicted per tick so evictions can't be delayed forever by obfuscation.
+	 */
+	private void evictDroppedChunks(long deadline) {
+		if (this.droppedChunks.isEmpty())
+			return;
+
+		ServerLevel level = (ServerLevel) this.world;
+		long time = level.getGameTime();
+		ObjectIterator<Long2LongMap.Entry> it = Long2LongMaps.fastIterator(this.droppedChunks);
+		while (it.hasNext()) {
+			Long2LongMap.Entry e = it.next();
+			if (time - e.getLongValue() < EVICTION_DELAY)
+				continue;
+
+			it.remove();
+			long pos = e.getLongKey();
+			int x = (int) pos, z = (int) (pos >>> 32);
+			NetworkChunk chunk = chunk(x, z);
+			if (chunk != null && level.getChunkSource().chunkMap.getPlayers(new ChunkPos(x, z), false).isEmpty())
+				chunk.evict();
+
+			if (System.nanoTime() >= deadline)
+				break;
+		}
+	}
+
 	public void removePendingSave(int x, int z) {
 		if (this.cache == null)
 			return;
 
 		synchronized (this.chunksToSave) {
-			this.chunksToSave.remove(asLong(x, z));
+			CompoundTag data = this.chunksToSave.remove(asLong(x, z));
+			if (data != null)
+				this.memory.addPendingSaves(-NetworkChunk.estimateSize(data));
 		}
 	}
 
@@ -239,7 +457,18 @@ public class NetworkWorld implements WorldView {
 			return;
 
 		synchronized (this.chunksToSave) {
-			this.chunksToSave.put(asLong(x, z), chunk);
+			CompoundTag previous = this.chunksToSave.put(asLong(x, z), chunk);
+			this.memory.addPendingSaves(NetworkChunk.estimateSize(chunk) - (previous == null ? 0 : NetworkChunk.estimateSize(previous)));
+		}
+	}
+
+	@Nullable
+	public CompoundTag getPendingSave(int x, int z) {
+		if (this.cache == null)
+			return null;
+
+		synchronized (this.chunksToSave) {
+			return this.chunksToSave.get(asLong(x, z));
 		}
 	}
 
@@ -250,6 +479,8 @@ public class NetworkWorld implements WorldView {
 		CompoundTag data;
 		synchronized (this.chunksToSave) {
 			data = this.chunksToSave.remove(asLong(x, z));
+			if (data != null)
+				this.memory.addPendingSaves(-NetworkChunk.estimateSize(data));
 		}
 		if (data != null)
 			saveToCache(x, z, data);
@@ -291,6 +522,15 @@ public class NetworkWorld implements WorldView {
 		return this.world;
 	}
 
+	public MemoryTracker getMemoryTracker() {
+		return this.memory;
+	}
+
+	@Override
+	public MemoryUsage memoryUsage() {
+		return this.memory.snapshot();
+	}
+
 	@Override
 	public WorldConfig config() {
 		if (this.config == null)
@@ -298,6 +538,12 @@ public class NetworkWorld implements WorldView {
 		return this.config;
 	}
 
+	public List<ModifierGroup> getModifierGroups() {
+		if (this.modifierGroups == null)
+			throw new IllegalStateException("Config not loaded");
+		return this.modifierGroups;
+	}
+
 	@Override
 	public void setDynamism(int x, int y, int z, int distance) {
 		if (this.dynamismEnabled) {
@@ -343,25 +589,22 @@ public class NetworkWorld implements WorldView {
 			return;
 		}
 
-		for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
-			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
-				if (chunk(chunkX, chunkZ) == null) {
-					if (silentFail)
-						return;
-					throw new IllegalStateException("Chunks must be loaded");
-				}
-			}
+		NetworkRegion region = new NetworkRegion(this, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
+		if (!region.isLoaded()) {
+			if (silentFail)
+				return;
+			throw new IllegalStateException("Chunks must be loaded");
 		}
 
-		deobfuscate(minX, minY, minZ, maxX, maxY, maxZ);
+		deobfuscate(region, minX, minY, minZ, maxX, maxY, maxZ);
 	}
 
-	private void deobfuscate(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+	private void deobfuscate(NetworkRegion region, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
 		int minChunkX = minX >> 4, minChunkZ = minZ >> 4, maxChunkX = maxX >> 4, maxChunkZ = maxZ >> 4;
 
 		for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
 			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
-				NetworkChunk chunk = chunk(chunkX, chunkZ);
+				NetworkChunk chunk = region.chunk(chunkX, chunkZ);
 
 				if (chunk.state() != State.DEOBFUSCATED) {
 					int chunkMinX = chunkX << 4, chunkMinZ = chunkZ << 4;
@@ -397,9 +640,10 @@ public class NetworkWorld implements WorldView {
 			return;
 		}
 
+		NetworkRegion region = new NetworkRegion(this, minChunkX, minChunkZ, maxChunkX, maxChunkZ);
 		for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
 			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
-				NetworkChunk chunk = chunk(chunkX, chunkZ);
+				NetworkChunk chunk = region.chunk(chunkX, chunkZ);
 				if (chunk == null) {
 					if (silentFail)
 						return;
@@ -413,18 +657,84 @@ public class NetworkWorld implements WorldView {
 			}
 		}
 
-		deobfuscate(minX, minY, minZ, maxX, maxY, maxZ);
-		Vector3i min = new Vector3i(minX, minY, minZ), max = new Vector3i(maxX, maxY, maxZ);
+		deobfuscate(region, minX, minY, minZ, maxX, maxY, maxZ);
 
-		for (ConfiguredModifier mod : this.config.modifiers) {
-			try {
-				mod.modifier.modify(this, min, max, this.random, mod.config);
-			} catch (Exception ex) {
-				Mirage.LOGGER.error("Modifier {} has thrown an exception while (re)modifying a part of a network world", ChunkModifier.REGISTRY_TYPE.get().valueKey(mod.modifier), ex);
+		// Each chunk uses its own random streams, the region allows the modifiers to see the neighbor chunks
+		for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+			for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+				int chunkMinX = chunkX << 4, chunkMinZ = chunkZ << 4;
+				region.chunk(chunkX, chunkZ).modify(region, new Vector3i(Math.max(minX, chunkMinX), minY, Math.max(minZ, chunkMinZ)),
+						new Vector3i(Math.min(maxX, chunkMinX + 15), maxY, Math.min(maxZ, chunkMinZ + 15)));
+			}
+		}
+	}
+
+	/**
+	 * Deobfuscates the blocks around the given block becoming transparent, according to the radius set in the configuration.
+	 * The obfuscated content of the revealed blocks is remembered so that
+	 * {@link #reobfuscateOpaqueChange(int, int, int, boolean)} can hide them again.
+	 *
+	 * @param x      The X position
+	 * @param y      The Y position
+	 * @param z      The Z position
+	 * @param player Use player deobf radius
+	 */
+	public void revealTransparentChange(int x, int y, int z, boolean player) {
+		if (!this.enabled || !contains(x, y, z))
+			return;
+
+		DeobfuscationConfig.Resolved cfg = this.config.main.deobf;
+		long source = BlockPos.asLong(x, y, z);
+		forEachChunk(x, y, z, player ? cfg.playerRadius : cfg.naturalRadius,
+				(chunk, minX, minY, minZ, maxX, maxY, maxZ) -> chunk.reveal(source, minX, minY, minZ, maxX, maxY, maxZ));
+	}
+
+	/**
+	 * Reobfuscates the blocks affected by the given block becoming opaque.
+	 * Only this block, the blocks it revealed with {@link #revealTransparentChange(int, int, int, boolean)} and its neighbors are processed.
+	 * The remembered obfuscated content of the ones that are not exposed anymore is restored
+	 * instead of running the modifiers again, so blocks that were already hidden are not changed.
+	 *
+	 * @param x      The X position
+	 * @param y      The Y position
+	 * @param z      The Z position
+	 * @param player Whether the change was made by a player, the revealed blocks are found whatever the radius used to reveal them
+	 */
+	public void reobfuscateOpaqueChange(int x, int y, int z, boolean player) {
+		if (!this.enabled || !contains(x, y, z))
+			return;
+
+		reobfuscateBlock(x, y, z);
+
+		// The block might have revealed blocks with the other radius, the neighbors are within both radii
+		DeobfuscationConfig.Resolved cfg = this.config.main.deobf;
+		long source = BlockPos.asLong(x, y, z);
+		forEachChunk(x, y, z, Math.max(cfg.playerRadius, cfg.naturalRadius),
+				(chunk, minX, minY, minZ, maxX, maxY, maxZ) -> chunk.hideRevealed(source, x, y, z));
+	}
+
+	private void forEachChunk(int x, int y, int z, int radius, AreaAction action) {
+		Vector3i min = min(), max = max();
+		int minX = Math.max(x - radius, min.x()), minY = Math.max(y - radius, min.y()), minZ = Math.max(z - radius, min.z()),
+				maxX = Math.min(x + radius, max.x()), maxY = Math.min(y + radius, max.y()), maxZ = Math.min(z + radius, max.z());
+
+		for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+			for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+				NetworkChunk chunk = chunk(chunkX, chunkZ);
+				if (chunk != null) {
+					action.apply(chunk, Math.max(minX, chunkX << 4), minY, Math.max(minZ, chunkZ << 4),
+							Math.min(maxX, (chunkX << 4) + 15), maxY, Math.min(maxZ, (chunkZ << 4) + 15));
+				}
 			}
 		}
 	}
 
+	private void reobfuscateBlock(int x, int y, int z) {
+		NetworkChunk chunk = chunk(x >> 4, z >> 4);
+		if (chunk != null && chunk.state() == State.OBFUSCATED)
+			chunk.reobfuscate(x, y, z, x, y, z);
+	}
+
 	@Nullable
 	public NetworkChunk chunk(int x, int z) {
 		InternalChunk chunk = this.world.opaqueChunk(x, z);
@@ -507,4 +817,9 @@ public class NetworkWorld implements WorldView {
 	public VolumeStream<Mutable, BlockState> blockStateStream(Vector3i min, Vector3i max, StreamOptions options) {
 		return BlockUtil.blockStateStream(this, min, max, options);
 	}
+
+	@FunctionalInterface
+	private interface AreaAction {
+		void apply(NetworkChunk chunk, int minX, int minY, int minZ, int maxX, int maxY, int maxZ);
+	}
 }
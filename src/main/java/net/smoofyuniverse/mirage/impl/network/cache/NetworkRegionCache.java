@@ -40,7 +40,7 @@ import java.nio.file.Path;
 import java.security.SecureRandom;
 
 public class NetworkRegionCache {
-	public static final int CURRENT_VERSION = 5;
+	public static final int CURRENT_VERSION = 7, MINIMUM_VERSION = 6;
 
 	public final Path directory;
 	public final String name;
@@ -113,7 +113,7 @@ public class NetworkRegionCache {
 			throw new IllegalArgumentException("Cache directory is not empty");
 		}
 
-		if (version < 4 || version > CURRENT_VERSION) {
+		if (version < MINIMUM_VERSION || version > CURRENT_VERSION) {
 			Mirage.LOGGER.info("Deleting outdated cache {}/ ...", this.name);
 
 			close();
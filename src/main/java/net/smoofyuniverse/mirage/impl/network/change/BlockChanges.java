@@ -22,9 +22,6 @@
 
 package net.smoofyuniverse.mirage.impl.network.change;
 
-import it.unimi.dsi.fastutil.shorts.Short2ObjectMap;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectMap.Entry;
-import it.unimi.dsi.fastutil.shorts.Short2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.shorts.ShortSets;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
@@ -38,16 +35,54 @@ import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.spongepowered.math.vector.Vector3i;
 
+import java.util.Arrays;
 import java.util.function.Consumer;
 
+/**
+ * A buffer of block changes in a section.
+ * Buffers are reused, see {@link #local(LevelChunk, int)}.
+ */
 public class BlockChanges {
-	private final Short2ObjectMap<BlockState> blocks = new Short2ObjectOpenHashMap<>();
-	private final LevelChunk chunk;
-	private final SectionPos pos;
+	private static final ThreadLocal<BlockChanges> LOCAL = ThreadLocal.withInitial(BlockChanges::new);
+
+	// Changed positions and their states in insertion order, and the slot of each position in these arrays
+	private final short[] positions = new short[4096];
+	private final BlockState[] states = new BlockState[4096];
+	private final short[] slots = new short[4096];
+	private final long[] present = new long[64];
+	private int size;
+
+	private final BlockPos.MutableBlockPos cursor = new BlockPos.MutableBlockPos();
+	private LevelChunk chunk;
+	private int x, y, z;
+
+	private BlockChanges() {}
+
+	/**
+	 * Gets the buffer of the current thread and clears it.
+	 * The buffer must be sent before this method is called again on the same thread.
+	 *
+	 * @param chunk The chunk
+	 * @param y     The section Y coordinate
+	 * @return The empty buffer
+	 */
+	public static BlockChanges local(LevelChunk chunk, int y) {
+		BlockChanges changes = LOCAL.get();
+		changes.reset(chunk, y);
+		return changes;
+	}
+
+	private void reset(LevelChunk chunk, int y) {
+		for (int i = 0; i < this.size; i++) {
+			int pos = this.positions[i];
+			this.present[pos >> 6] &= ~(1L << pos);
+		}
+		this.size = 0;
 
-	public BlockChanges(LevelChunk chunk, int y) {
 		this.chunk = chunk;
-		this.pos = SectionPos.of(chunk.getPos(), y);
+		this.x = chunk.getPos().x;
+		this.y = y;
+		this.z = chunk.getPos().z;
 	}
 
 	public void add(Vector3i pos, BlockState state) {
@@ -59,7 +94,21 @@ public class BlockChanges {
 	}
 
 	public void add(short index, BlockState state) {
-		this.blocks.put(index, state);
+		int w = index >> 6;
+		long bit = 1L << index;
+		if ((this.present[w] & bit) != 0) {
+			this.states[this.slots[index]] = state;
+			return;
+		}
+
+		this.present[w] |= bit;
+		this.slots[index] = (short) this.size;
+		this.positions[this.size] = index;
+		this.states[this.size++] = state;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
 	}
 
 	public void sendTo(ServerPlayer player) {
@@ -67,17 +116,16 @@ public class BlockChanges {
 	}
 
 	public void sendTo(Consumer<Packet<ClientGamePacketListener>> consumer) {
-		int changes = this.blocks.size();
+		int changes = this.size;
 		if (changes == 0)
 			return;
 
-		int minX = this.pos.minBlockX(), minY = this.pos.minBlockY(), minZ = this.pos.minBlockZ();
+		int minX = this.x << 4, minY = this.y << 4, minZ = this.z << 4;
 
 		if (changes == 1) {
-			Entry<BlockState> e = this.blocks.short2ObjectEntrySet().iterator().next();
-			short key = e.getShortKey();
+			short key = this.positions[0];
 			BlockPos pos = new BlockPos(minX + (key >> 8 & 15), minY + (key & 15), minZ + (key >> 4 & 15));
-			BlockState state = e.getValue();
+			BlockState state = this.states[0];
 
 			consumer.accept(new ClientboundBlockUpdatePacket(pos, state));
 
@@ -85,24 +133,23 @@ public class BlockChanges {
 			if (p2 != null)
 				consumer.accept(p2);
 		} else {
-			ClientboundSectionBlocksUpdatePacket p = new ClientboundSectionBlocksUpdatePacket(this.pos, ShortSets.emptySet(), null);
-			p.positions = new short[changes];
-			p.states = new BlockState[changes];
-
-			int i = 0;
-			for (Entry<BlockState> e : this.blocks.short2ObjectEntrySet()) {
-				p.positions[i] = e.getShortKey();
-				p.states[i++] = e.getValue();
-			}
+			// The packet is encoded later on the network thread so it needs its own arrays
+			ClientboundSectionBlocksUpdatePacket p = new ClientboundSectionBlocksUpdatePacket(SectionPos.of(this.x, this.y, this.z), ShortSets.emptySet(), null);
+			p.positions = Arrays.copyOf(this.positions, changes);
+			p.states = Arrays.copyOf(this.states, changes);
 
 			consumer.accept(p);
 
-			BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
-			for (i = 0; i < changes; i++) {
-				short key = p.positions[i];
+			BlockPos.MutableBlockPos pos = this.cursor;
+			for (int i = 0; i < changes; i++) {
+				BlockState state = this.states[i];
+				if (!state.hasBlockEntity())
+					continue;
+
+				short key = this.positions[i];
 				pos.set(minX + (key >> 8 & 15), minY + (key & 15), minZ + (key >> 4 & 15));
 
-				Packet<ClientGamePacketListener> p2 = getEntityPacket(pos, p.states[i]);
+				Packet<ClientGamePacketListener> p2 = getEntityPacket(pos, state);
 				if (p2 != null)
 					consumer.accept(p2);
 			}
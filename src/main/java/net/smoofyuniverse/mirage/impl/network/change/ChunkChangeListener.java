@@ -26,6 +26,21 @@ public interface ChunkChangeListener {
 
 	void addChange(int x, int y, int z);
 
+	/**
+	 * Reports that any block of a section might have changed.
+	 *
+	 * @param sectionY The section Y
+	 */
+	default void addSectionChange(int sectionY) {
+		int minY = sectionY << 4;
+		for (int y = minY; y < minY + 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++)
+					addChange(x, y, z);
+			}
+		}
+	}
+
 	void setDynamismEnabled(boolean value);
 
 	void updateDynamism(int x, int y, int z, int distance);
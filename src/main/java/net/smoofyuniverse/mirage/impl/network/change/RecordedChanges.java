@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network.change;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+/**
+ * Records changes made to a detached network chunk so they can be replayed later on the main thread.
+ */
+public class RecordedChanges implements ChunkChangeListener {
+	private final IntList changes = new IntArrayList();
+	private final IntList sectionChanges = new IntArrayList();
+	private final IntList dynamism = new IntArrayList();
+	private boolean clearDynamism, changed;
+
+	@Override
+	public void addChange(int x, int y, int z) {
+		this.changes.add(x);
+		this.changes.add(y);
+		this.changes.add(z);
+	}
+
+	@Override
+	public void addSectionChange(int sectionY) {
+		this.sectionChanges.add(sectionY);
+	}
+
+	@Override
+	public void setDynamismEnabled(boolean value) {
+	}
+
+	@Override
+	public void updateDynamism(int x, int y, int z, int distance) {
+		this.dynamism.add(x);
+		this.dynamism.add(y);
+		this.dynamism.add(z);
+		this.dynamism.add(distance);
+	}
+
+	@Override
+	public void clearDynamism() {
+		this.clearDynamism = true;
+		this.dynamism.clear();
+	}
+
+	@Override
+	public void markChanged() {
+		this.changed = true;
+	}
+
+	public void replay(ChunkChangeListener listener) {
+		if (this.clearDynamism)
+			listener.clearDynamism();
+
+		for (int i = 0; i < this.dynamism.size(); i += 4)
+			listener.updateDynamism(this.dynamism.getInt(i), this.dynamism.getInt(i + 1), this.dynamism.getInt(i + 2), this.dynamism.getInt(i + 3));
+
+		for (int i = 0; i < this.changes.size(); i += 3)
+			listener.addChange(this.changes.getInt(i), this.changes.getInt(i + 1), this.changes.getInt(i + 2));
+
+		for (int i = 0; i < this.sectionChanges.size(); i++)
+			listener.addSectionChange(this.sectionChanges.getInt(i));
+
+		if (this.changed)
+			listener.markChanged();
+	}
+}
@@ -22,18 +22,23 @@
 
 package net.smoofyuniverse.mirage.impl.network.dynamic;
 
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
+import net.smoofyuniverse.mirage.impl.network.MemoryTracker;
 import net.smoofyuniverse.mirage.impl.network.NetworkChunk;
 import net.smoofyuniverse.mirage.impl.network.NetworkSection;
 import net.smoofyuniverse.mirage.impl.network.change.ChunkChangeListener;
 import org.spongepowered.math.vector.Vector3i;
 
+import javax.annotation.Nullable;
+
 import static net.smoofyuniverse.mirage.util.MathUtil.lengthSquared;
 import static net.smoofyuniverse.mirage.util.MathUtil.squared;
 import static org.spongepowered.math.GenericMath.clamp;
 
 public final class DynamicChunk {
-	public static final int maxDistance2 = squared(160);
+	// The chunk being sent to its player by the current thread
+	private static final ThreadLocal<DynamicChunk> SENDING = new ThreadLocal<>();
 
 	public final DynamicWorld world;
 	public final InternalChunk storage;
@@ -41,12 +46,102 @@ public final class DynamicChunk {
 	public final DynamicSection[] sections;
 	public final int minSectionY;
 	private Vector3i relativeCenter;
+	// Sections encoded with the reveals of the player, only kept while the chunk is being sent
+	private byte[][] encodedSections;
 
 	DynamicChunk(DynamicWorld world, InternalChunk storage) {
 		this.world = world;
 		this.storage = storage;
 		this.sections = new DynamicSection[storage.getSectionsCount()];
 		this.minSectionY = storage.getMinSectionY();
+		this.world.memory.addPlayers(size());
+	}
+
+	// The object, its entry in the map of the world and the array of sections
+	private int size() {
+		return MemoryTracker.OBJECT + 32 + MemoryTracker.OBJECT + 16 + MemoryTracker.sizeOf(this.sections);
+	}
+
+	void release() {
+		releaseEncoded();
+		long size = size();
+		for (DynamicSection section : this.sections) {
+			if (section != null)
+				size += DynamicSection.SIZE;
+		}
+		this.world.memory.addPlayers(-size);
+	}
+
+	/**
+	 * Applies the pending changes and marks this chunk as being sent by the current thread.
+	 * Until {@link #endSend()} is called, the sections of the chunk are encoded with the positions revealed to the player.
+	 */
+	public void beginSend() {
+		// A previous sending may have been interrupted by an exception
+		endSend();
+
+		for (DynamicSection section : this.sections) {
+			if (section != null)
+				section.applyChanges();
+		}
+		SENDING.set(this);
+	}
+
+	/**
+	 * Ends the sending started by {@link #beginSend()} on the current thread, if any.
+	 */
+	public static void endSend() {
+		DynamicChunk chunk = SENDING.get();
+		if (chunk != null) {
+			chunk.releaseEncoded();
+			SENDING.remove();
+		}
+	}
+
+	private void releaseEncoded() {
+		if (this.encodedSections == null)
+			return;
+
+		long size = MemoryTracker.sizeOf(this.encodedSections);
+		for (byte[] encoded : this.encodedSections)
+			size += MemoryTracker.sizeOf(encoded);
+		this.world.memory.addPlayers(-size);
+		this.encodedSections = null;
+	}
+
+	/**
+	 * Encodes a section for the player to which a chunk is being sent by the current thread.
+	 *
+	 * @param chunk The chunk being encoded
+	 * @param index The index of the section in the chunk
+	 * @param view  The network section
+	 * @return The encoded states, or null if the shared encoding can be used
+	 */
+	@Nullable
+	public static byte[] encodeForSending(LevelChunk chunk, int index, NetworkSection view) {
+		DynamicChunk sending = SENDING.get();
+		return sending == null || sending.storage != chunk ? null : sending.encode(index, view);
+	}
+
+	@Nullable
+	private byte[] encode(int i, NetworkSection view) {
+		if (i < 0 || i >= this.sections.length)
+			return null;
+
+		DynamicSection section = this.sections[i];
+		if (section == null || section.hasNoReveals())
+			return null;
+
+		// The size of the packet is computed before its writing, both use the same encoding
+		if (this.encodedSections == null) {
+			this.encodedSections = new byte[this.sections.length][];
+			this.world.memory.addPlayers(MemoryTracker.sizeOf(this.encodedSections));
+		}
+		if (this.encodedSections[i] == null) {
+			this.encodedSections[i] = section.encode(view);
+			this.world.memory.addPlayers(MemoryTracker.sizeOf(this.encodedSections[i]));
+		}
+		return this.encodedSections[i];
 	}
 
 	public Vector3i getRelativeCenter() {
@@ -57,7 +152,8 @@ public final class DynamicChunk {
 		Vector3i min = this.storage.min();
 		this.relativeCenter = this.world.getCenter().sub(min.x(), 0, min.z());
 		int x = this.relativeCenter.x(), z = this.relativeCenter.z();
-		int xzDistance2 = lengthSquared(clamp(x, 0, 15) - x, clamp(z, 0, 15) - z);
+		int xzMinDistance2 = lengthSquared(clamp(x, 0, 15) - x, clamp(z, 0, 15) - z);
+		int xzMaxDistance2 = lengthSquared(Math.max(x, 15 - x), Math.max(z, 15 - z));
 
 		NetworkChunk chunkView = this.storage.view();
 		for (int i = 0; i < this.sections.length; i++) {
@@ -74,18 +170,16 @@ public final class DynamicChunk {
 			}
 
 			section.setCenter();
-			section.clear();
 
 			int y = section.getRelativeCenter().y();
-			int d2 = xzDistance2 + squared(clamp(y, 0, 15) - y);
-			if (d2 <= maxDistance2) {
-				if (d2 <= squared(view.getMaxDynamism()) << 8) {
-					view.collectDynamicPositions(section);
-				}
-			}
+			int minDistance2 = xzMinDistance2 + squared(clamp(y, 0, 15) - y);
+			int maxDistance2 = xzMaxDistance2 + squared(Math.max(y, 15 - y));
+			section.update(view, minDistance2, maxDistance2);
 		}
+	}
 
-		ChunkChangeListener listener = chunkView.getListener();
+	void markChanged() {
+		ChunkChangeListener listener = this.storage.view().getListener();
 		if (listener != null)
 			listener.markChanged();
 	}
@@ -98,11 +192,11 @@ public final class DynamicChunk {
 	}
 
 	public boolean test(int x, int y, int z, int distance) {
-		return this.relativeCenter.distanceSquared(x, y, z) <= squared(distance) << 8;
+		return this.relativeCenter.distanceSquared(x, y, z) <= this.world.radius2[distance];
 	}
 
 	public void update(int x, int y, int z, int distance) {
-		if (test(x, y, z, distance))
+		if (distance != 0 && test(x, y, z, distance))
 			add(x, y, z);
 		else
 			remove(x, y, z);
@@ -22,31 +22,39 @@
 
 package net.smoofyuniverse.mirage.impl.network.dynamic;
 
-import it.unimi.dsi.fastutil.shorts.ShortIterator;
-import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
-import it.unimi.dsi.fastutil.shorts.ShortSet;
-import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.smoofyuniverse.mirage.impl.internal.InternalSection;
+import net.smoofyuniverse.mirage.impl.network.MemoryTracker;
 import net.smoofyuniverse.mirage.impl.network.NetworkSection;
 import net.smoofyuniverse.mirage.impl.network.change.BlockChanges;
 import org.spongepowered.math.vector.Vector3i;
 
-import static net.smoofyuniverse.mirage.util.MathUtil.squared;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 
 public final class DynamicSection {
+	static final int SIZE = MemoryTracker.OBJECT + 40 + 2 * (MemoryTracker.ARRAY + (64 << 3)) + MemoryTracker.ARRAY + 11;
+
+	// Coverage of a group of dynamic positions by its reveal sphere
+	private static final byte UNKNOWN = 0, NONE = 1, ALL = 2, PARTIAL = 3;
+
 	public final DynamicChunk chunk;
 	public final int y;
 
-	private final ShortSet nextPositions = new ShortOpenHashSet();
-	private final ShortSet currentPositions = new ShortOpenHashSet();
+	// Bitsets of the revealed positions, the bit of a position is its packed index
+	private final long[] nextPositions = new long[64];
+	private final long[] currentPositions = new long[64];
 	private boolean modified;
 
+	// Coverage of each group of dynamic positions at the last update
+	private final byte[] coverage = new byte[11];
+
 	private Vector3i relativeCenter;
 
 	DynamicSection(DynamicChunk chunk, int y) {
 		this.chunk = chunk;
 		this.y = y;
+		this.chunk.world.memory.addPlayers(SIZE);
 	}
 
 	public Vector3i getRelativeCenter() {
@@ -57,22 +65,46 @@ public final class DynamicSection {
 		this.relativeCenter = this.chunk.getRelativeCenter().sub(0, this.y << 4, 0);
 	}
 
-	public void add(int x, int y, int z, int distance) {
-		if (test(x, y, z, distance))
-			add(x, y, z);
+	/**
+	 * Updates the revealed positions after a move of the center.
+	 * A group of positions sharing the same distance is only tested position by position
+	 * when the boundary of its reveal sphere crosses this section.
+	 * Groups entirely revealed or entirely hidden both before and after the move are skipped.
+	 *
+	 * @param view         The network section
+	 * @param minDistance2 The minimum squared distance between the center and this section
+	 * @param maxDistance2 The maximum squared distance between the center and this section
+	 */
+	void update(NetworkSection view, int minDistance2, int maxDistance2) {
+		for (int d = 1; d <= 10; d++) {
+			int radius2 = this.chunk.world.radius2[d];
+			byte coverage = maxDistance2 <= radius2 ? ALL : minDistance2 > radius2 ? NONE : PARTIAL;
+			if (coverage == this.coverage[d] && coverage != PARTIAL)
+				continue;
+			this.coverage[d] = coverage;
+
+			short[] group = view.getDynamicPositions(d);
+			for (int k = 0, n = view.getDynamicCount(d); k < n; k++) {
+				int i = group[k], x = i & 15, y = i >> 8, z = i >> 4 & 15;
+				if (coverage == ALL || (coverage == PARTIAL && test(x, y, z, d)))
+					add(x, y, z);
+				else
+					remove(x, y, z);
+			}
+		}
 	}
 
 	public boolean test(int x, int y, int z, int distance) {
-		return this.relativeCenter.distanceSquared(x, y, z) <= squared(distance) << 8;
+		return this.relativeCenter.distanceSquared(x, y, z) <= this.chunk.world.radius2[distance];
 	}
 
 	public void add(int x, int y, int z) {
-		_add(index(x, y, z));
-	}
-
-	private void _add(short pos) {
-		if (this.nextPositions.add(pos))
+		int i = index(x, y, z);
+		long word = this.nextPositions[i >> 6], bit = 1L << i;
+		if ((word & bit) == 0) {
+			this.nextPositions[i >> 6] = word | bit;
 			this.modified = true;
+		}
 	}
 
 	private static short index(int x, int y, int z) {
@@ -80,18 +112,22 @@ public final class DynamicSection {
 	}
 
 	public void remove(int x, int y, int z) {
-		_remove(index(x, y, z));
-	}
-
-	private void _remove(short pos) {
-		if (this.nextPositions.remove(pos))
+		int i = index(x, y, z);
+		long word = this.nextPositions[i >> 6], bit = 1L << i;
+		if ((word & bit) != 0) {
+			this.nextPositions[i >> 6] = word & ~bit;
 			this.modified = true;
+		}
 	}
 
 	public void clear() {
-		if (!this.nextPositions.isEmpty()) {
-			this.nextPositions.clear();
-			this.modified = true;
+		Arrays.fill(this.coverage, UNKNOWN);
+		for (long word : this.nextPositions) {
+			if (word != 0) {
+				Arrays.fill(this.nextPositions, 0);
+				this.modified = true;
+				return;
+			}
 		}
 	}
 
@@ -100,7 +136,7 @@ public final class DynamicSection {
 	}
 
 	public boolean currentlyContains(short pos) {
-		return this.currentPositions.contains(pos);
+		return (this.currentPositions[pos >> 6] & (1L << pos)) != 0;
 	}
 
 	public void getChanges(BlockChanges changes) {
@@ -108,20 +144,20 @@ public final class DynamicSection {
 			LevelChunkSection storage = storage();
 			NetworkSection view = ((InternalSection) storage).view();
 
-			// Reveal
-			ShortIterator it = this.nextPositions.iterator();
-			while (it.hasNext()) {
-				short pos = it.nextShort();
-				if (!this.currentPositions.contains(pos))
+			for (int w = 0; w < 64; w++) {
+				long next = this.nextPositions[w], current = this.currentPositions[w];
+
+				// Reveal
+				for (long bits = next & ~current; bits != 0; bits &= bits - 1) {
+					short pos = (short) (w << 6 | Long.numberOfTrailingZeros(bits));
 					changes.add(pos, storage.getBlockState(pos >> 8 & 15, pos & 15, pos >> 4 & 15));
-			}
+				}
 
-			// Hide
-			it = this.currentPositions.iterator();
-			while (it.hasNext()) {
-				short pos = it.nextShort();
-				if (!this.nextPositions.contains(pos))
+				// Hide
+				for (long bits = current & ~next; bits != 0; bits &= bits - 1) {
+					short pos = (short) (w << 6 | Long.numberOfTrailingZeros(bits));
 					changes.add(pos, view.getBlockState(pos >> 8 & 15, pos & 15, pos >> 4 & 15));
+				}
 			}
 		}
 	}
@@ -130,31 +166,60 @@ public final class DynamicSection {
 		return this.chunk.storage.getSections()[this.y - this.chunk.minSectionY];
 	}
 
-	public BlockChanges getCurrent() {
-		BlockChanges changes = new BlockChanges((LevelChunk) this.chunk.storage, this.y);
-		getCurrent(changes);
-		return changes;
-	}
-
-	public void getCurrent(BlockChanges changes) {
-		LevelChunkSection storage = storage();
-
-		// Reveal
-		ShortIterator it = this.currentPositions.iterator();
-		while (it.hasNext()) {
-			short pos = it.nextShort();
-			changes.add(pos, storage.getBlockState(pos >> 8 & 15, pos & 15, pos >> 4 & 15));
-		}
+	byte[] encode(NetworkSection view) {
+		return view.encode(this.currentPositions);
 	}
 
 	public boolean hasChanges() {
 		return this.modified;
 	}
 
+	/**
+	 * @return Whether no position is revealed and no change is pending
+	 */
+	public boolean hasNoReveals() {
+		if (this.modified)
+			return false;
+		for (long word : this.currentPositions) {
+			if (word != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes a hash of the current reveals and of the pending ones.
+	 * Sections with the same reveals have the same hash.
+	 *
+	 * @return The hash
+	 */
+	public int revealHash() {
+		int hash = Arrays.hashCode(this.currentPositions);
+		return 31 * hash + (this.modified ? Arrays.hashCode(this.nextPositions) : hash);
+	}
+
+	/**
+	 * Checks whether the changes of both sections would be sent the same way.
+	 * A null section means no position is revealed.
+	 *
+	 * @param a The first section
+	 * @param b The second section
+	 * @return Whether both sections have the same current and pending reveals
+	 */
+	public static boolean sameReveals(@Nullable DynamicSection a, @Nullable DynamicSection b) {
+		if (a == b)
+			return true;
+		if (a == null)
+			return b.hasNoReveals();
+		if (b == null)
+			return a.hasNoReveals();
+		return Arrays.equals(a.currentPositions, b.currentPositions)
+				&& Arrays.equals(a.modified ? a.nextPositions : a.currentPositions, b.modified ? b.nextPositions : b.currentPositions);
+	}
+
 	public void applyChanges() {
 		if (this.modified) {
-			this.currentPositions.clear();
-			this.currentPositions.addAll(this.nextPositions);
+			System.arraycopy(this.nextPositions, 0, this.currentPositions, 0, 64);
 			this.modified = false;
 		}
 	}
@@ -24,31 +24,164 @@ package net.smoofyuniverse.mirage.impl.network.dynamic;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.server.level.ServerLevel;
+import net.smoofyuniverse.mirage.Mirage;
+import net.smoofyuniverse.mirage.config.world.MainConfig;
 import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
+import net.smoofyuniverse.mirage.impl.network.MemoryTracker;
 import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.math.vector.Vector3d;
 import org.spongepowered.math.vector.Vector3i;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.smoofyuniverse.mirage.impl.network.NetworkChunk.asLong;
+import static net.smoofyuniverse.mirage.util.MathUtil.squared;
 
 public final class DynamicWorld {
+	private static final int SIZE = MemoryTracker.OBJECT + 96 + MemoryTracker.ARRAY + (11 << 2);
 	private final InternalWorld storage;
+	final MemoryTracker memory;
 
 	private final Long2ObjectMap<DynamicChunk> chunks = new Long2ObjectOpenHashMap<>();
 	private Vector3i center;
 
+	// Squared reveal radius of each dynamism distance, including the margin
+	final int[] radius2 = new int[11];
+	private final boolean throttled;
+	private final int updateDistance2, forceDistance2, updateInterval;
+	private Vector3d eye;
+	private long lastUpdate;
+	private boolean pendingUpdate;
+
 	public DynamicWorld(InternalWorld storage) {
 		this.storage = storage;
+		this.memory = storage.view().getMemoryTracker();
+		this.memory.addPlayers(SIZE);
+
+		MainConfig.Resolved cfg = storage.view().config().main;
+		int distance = cfg.dynamismUpdateDistance;
+		this.updateInterval = cfg.dynamismUpdateInterval;
+		this.throttled = distance > 1 || this.updateInterval > 1;
+
+		// When updates are delayed, the player can move up to twice the update distance before an update is forced.
+		// Blocks are revealed this much earlier so they are always revealed in time.
+		int margin = this.throttled ? distance << 1 : 0;
+		for (int d = 0; d <= 10; d++)
+			this.radius2[d] = squared((d << 4) + margin);
+		this.updateDistance2 = squared(distance);
+		this.forceDistance2 = squared(distance << 1);
 	}
 
 	public void updateCenter(Player player) {
-		Vector3i newCenter = player.position().add(0, 1.62, 0).toInt();
-		if (!newCenter.equals(this.center)) {
-			this.center = newCenter;
-			for (DynamicChunk chunk : this.chunks.values())
-				chunk.updateCenter();
+		Vector3d eye = player.position().add(0, 1.62, 0);
+		Vector3i newCenter = eye.toInt();
+		if (newCenter.equals(this.center))
+			return;
+
+		long time = ((ServerLevel) this.storage).getGameTime();
+		if (this.throttled && this.eye != null) {
+			double moved2 = this.eye.distanceSquared(eye);
+			if (moved2 < this.forceDistance2 && (moved2 < this.updateDistance2 || time - this.lastUpdate < this.updateInterval))
+				return;
 		}
+
+		this.eye = eye;
+		this.center = newCenter;
+		this.lastUpdate = time;
+		this.pendingUpdate = true;
+	}
+
+	/**
+	 * Updates the dynamic chunks around the new center, if it has changed.
+	 * This method only reads the network chunks and thus can be called from another thread
+	 * as long as the main thread is waiting for it.
+	 */
+	void updateChunks() {
+		if (!this.pendingUpdate)
+			return;
+
+		for (DynamicChunk chunk : this.chunks.values())
+			chunk.updateCenter();
+	}
+
+	/**
+	 * Marks the chunks updated by {@link #updateChunks()} as changed so they are broadcast.
+	 * Must be called from the main thread.
+	 */
+	void markChanged() {
+		if (!this.pendingUpdate)
+			return;
+
+		this.pendingUpdate = false;
+		for (DynamicChunk chunk : this.chunks.values())
+			chunk.markChanged();
+	}
+
+	/**
+	 * Updates the dynamic chunks of all given worlds whose center has changed.
+	 * The worlds are updated concurrently on the executor while the main thread helps and waits for them.
+	 * Must be called from the main thread, before the changes are broadcast.
+	 *
+	 * @param worlds The dynamic worlds
+	 */
+	public static void updateAll(Collection<DynamicWorld> worlds) {
+		List<DynamicWorld> pending = new ArrayList<>();
+		for (DynamicWorld world : worlds) {
+			if (world.pendingUpdate)
+				pending.add(world);
+		}
+
+		int count = pending.size();
+		if (count == 0)
+			return;
+
+		ForkJoinPool executor = Mirage.get().getExecutor();
+		if (count == 1 || executor == null) {
+			for (DynamicWorld world : pending)
+				world.updateChunks();
+		} else {
+			// The main thread claims worlds too, so it never waits for a world queued behind obfuscation tasks
+			AtomicInteger next = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(count);
+			Runnable task = () -> {
+				int i;
+				while ((i = next.getAndIncrement()) < count) {
+					try {
+						pending.get(i).updateChunks();
+					} catch (Exception e) {
+						Mirage.LOGGER.error("Failed to update a dynamic world", e);
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+
+			for (int i = Math.min(count, executor.getParallelism()) - 1; i > 0; i--)
+				executor.execute(task);
+			task.run();
+
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		for (DynamicWorld world : pending)
+			world.markChanged();
 	}
 
 	public Vector3i getCenter() {
@@ -62,6 +195,7 @@ public final class DynamicWorld {
 			chunk = new DynamicChunk(this, this.storage.opaqueChunk(x, z));
 			this.chunks.put(asLong(x, z), chunk);
 			chunk.updateCenter();
+			chunk.markChanged();
 		}
 		return chunk;
 	}
@@ -72,6 +206,18 @@ public final class DynamicWorld {
 	}
 
 	public void removeChunk(int x, int z) {
-		this.chunks.remove(asLong(x, z));
+		DynamicChunk chunk = this.chunks.remove(asLong(x, z));
+		if (chunk != null)
+			chunk.release();
+	}
+
+	/**
+	 * Stops reporting the memory used by this world.
+	 * Called when the player leaves the world.
+	 */
+	public void release() {
+		for (DynamicChunk chunk : this.chunks.values())
+			chunk.release();
+		this.memory.addPlayers(-SIZE);
 	}
 }
@@ -24,6 +24,7 @@ package net.smoofyuniverse.mirage.mixin.block;
 
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.state.BlockBehaviour.BlockStateBase;
+import net.minecraft.world.level.block.state.BlockState;
 import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -34,6 +35,8 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 @Mixin(BlockStateBase.class)
 public abstract class BlockStateBaseMixin implements InternalBlockState {
 	private boolean opaque;
+	// Resolved on first use, the cache might not be initialized yet
+	private int stateId = -1;
 
 	@Inject(method = "initCache", at = @At("RETURN"))
 	public void onInitCache(CallbackInfo ci) {
@@ -50,4 +53,12 @@ public abstract class BlockStateBaseMixin implements InternalBlockState {
 	public boolean isOpaque() {
 		return this.opaque;
 	}
+
+	@Override
+	public int getStateId() {
+		int id = this.stateId;
+		if (id == -1)
+			this.stateId = id = Block.getId((BlockState) (Object) this);
+		return id;
+	}
 }
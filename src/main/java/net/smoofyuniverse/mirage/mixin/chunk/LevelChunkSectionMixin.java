@@ -26,11 +26,13 @@ import net.minecraft.core.Holder;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.world.level.biome.Biome;
 import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.minecraft.world.level.chunk.PalettedContainer;
 import net.minecraft.world.level.chunk.PalettedContainerRO;
 import net.smoofyuniverse.mirage.impl.internal.InternalSection;
 import net.smoofyuniverse.mirage.impl.network.NetworkSection;
+import net.smoofyuniverse.mirage.impl.network.dynamic.DynamicChunk;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
@@ -55,37 +57,39 @@ public abstract class LevelChunkSectionMixin implements InternalSection {
 	@Shadow
 	public abstract int getSerializedSize();
 
-	@Shadow
-	public abstract boolean hasOnlyAir();
-
 	@Override
 	public NetworkSection view() {
-		if (this.networkSection == null) {
+		if (this.networkSection == null)
 			this.networkSection = new NetworkSection((LevelChunkSection) (Object) this);
-			if (!hasOnlyAir())
-				this.networkSection.deobfuscate(null);
-		}
 		return this.networkSection;
 	}
 
 	@Inject(method = "setBlockState(IIILnet/minecraft/world/level/block/state/BlockState;Z)Lnet/minecraft/world/level/block/state/BlockState;", at = @At("RETURN"))
 	public void onSet(int x, int y, int z, BlockState state, boolean lock, CallbackInfoReturnable<BlockState> cir) {
 		if (this.networkSection != null)
-			this.networkSection.setBlockState(x, y, z, state);
+			this.networkSection.onRealChange(x, y, z, cir.getReturnValue(), state);
 	}
 
 	@Override
-	public void _write(FriendlyByteBuf buffer) {
+	public void _write(FriendlyByteBuf buffer, LevelChunk chunk) {
 		if (this.networkSection == null) {
 			write(buffer);
 		} else {
-			this.networkSection.write(buffer);
+			byte[] encoded = DynamicChunk.encodeForSending(chunk, chunk.getSectionIndex(this.networkSection.getMinY()), this.networkSection);
+			if (encoded == null)
+				this.networkSection.write(buffer);
+			else
+				buffer.writeBytes(encoded);
 			this.biomes.write(buffer);
 		}
 	}
 
 	@Override
-	public int _getSerializedSize() {
-		return this.networkSection == null ? getSerializedSize() : (this.networkSection.getSerializedSize() + this.biomes.getSerializedSize());
+	public int _getSerializedSize(LevelChunk chunk) {
+		if (this.networkSection == null)
+			return getSerializedSize();
+
+		byte[] encoded = DynamicChunk.encodeForSending(chunk, chunk.getSectionIndex(this.networkSection.getMinY()), this.networkSection);
+		return (encoded == null ? this.networkSection.getSerializedSize() : encoded.length) + this.biomes.getSerializedSize();
 	}
 }
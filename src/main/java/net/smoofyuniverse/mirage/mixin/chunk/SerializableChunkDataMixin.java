@@ -22,39 +22,25 @@
 
 package net.smoofyuniverse.mirage.mixin.chunk;
 
-import net.minecraft.core.Holder;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.entity.ai.village.poi.PoiManager;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.LevelHeightAccessor;
-import net.minecraft.world.level.biome.Biome;
-import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.chunk.*;
 import net.minecraft.world.level.chunk.storage.RegionStorageInfo;
 import net.minecraft.world.level.chunk.storage.SerializableChunkData;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunkAccess;
-import net.smoofyuniverse.mirage.impl.internal.InternalSection;
 import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
-import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(SerializableChunkData.class)
 public class SerializableChunkDataMixin {
 	private long cacheTime = 0;
 
-	@Redirect(method = "parse", at = @At(value = "NEW", target = "net/minecraft/world/level/chunk/LevelChunkSection"))
-	private static LevelChunkSection onParse_newSection(PalettedContainer<BlockState> blocks, PalettedContainerRO<Holder<Biome>> biomes,
-														LevelHeightAccessor level, PalettedContainerFactory factory, CompoundTag tag) {
-		LevelChunkSection section = new LevelChunkSection(blocks, biomes);
-		if (level instanceof InternalWorld world && world.view().isEnabled())
-			((InternalSection) section).view(); // lazy-init network section before data is read
-		return section;
-	}
-
 	@Inject(method = "parse", at = @At("RETURN"))
 	private static void onParse(LevelHeightAccessor level, PalettedContainerFactory factory, CompoundTag tag, CallbackInfoReturnable<SerializableChunkData> cir) {
 		SerializableChunkDataMixin data = (SerializableChunkDataMixin) (Object) cir.getReturnValue();
@@ -22,10 +22,13 @@
 
 package net.smoofyuniverse.mirage.mixin.level;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.shorts.ShortIterator;
 import it.unimi.dsi.fastutil.shorts.ShortSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
 import net.minecraft.network.protocol.game.ClientboundLightUpdatePacket;
 import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ChunkHolder.PlayerProvider;
@@ -108,32 +111,81 @@ public abstract class ChunkHolderMixin extends GenerationChunkHolder implements
 				if (this.dynamismEnabled) {
 					NetworkChunk view = storage.view();
 
-					for (ServerPlayer p : players) {
-						DynamicChunk dynChunk = ((InternalPlayer) p).getDynamicChunk(this.pos.x, this.pos.z);
+					int playerCount = players.size();
+					DynamicSection[] dynSections = new DynamicSection[playerCount];
+					DynamicChunk[] dynChunks = new DynamicChunk[playerCount];
+					for (int k = 0; k < playerCount; k++)
+						dynChunks[k] = ((InternalPlayer) players.get(k)).getDynamicChunk(this.pos.x, this.pos.z);
 
-						for (int i = 0; i < this.changedBlocksPerSection.length; i++) {
-							int y = this.levelHeightAccessor.getSectionYFromSectionIndex(i);
-							DynamicSection dynSection = dynChunk == null ? null : dynChunk.sections[i];
-							BlockChanges changes = new BlockChanges(chunk, y);
-							int minY = y << 4;
+					// Players with the same reveals in a section receive the same packets, built only once
+					List<DynamicSection> groupSections = new ArrayList<>();
+					IntList groupHashes = new IntArrayList();
+					List<List<Packet<ClientGamePacketListener>>> groupPackets = new ArrayList<>();
+
+					for (int i = 0; i < this.changedBlocksPerSection.length; i++) {
+						ShortSet storageChanges = this.changedBlocksPerSection[i];
+						boolean dynChanges = false;
+						for (int k = 0; k < playerCount; k++) {
+							DynamicSection dynSection = dynChunks[k] == null ? null : dynChunks[k].sections[i];
+							if (dynSection != null && dynSection.hasNoReveals())
+								dynSection = null;
+							dynSections[k] = dynSection;
+							dynChanges |= dynSection != null && dynSection.hasChanges();
+						}
 
-							ShortSet storageChanges = this.changedBlocksPerSection[i];
-							if (storageChanges != null) {
-								ShortIterator it = storageChanges.iterator();
-								while (it.hasNext()) {
-									short pos = it.nextShort();
-									changes.add(pos, (BlockState) (dynSection != null && dynSection.currentlyContains(pos) ? storage : view)
-											.block(minX + (pos >> 8 & 15), minY + (pos & 15), minZ + (pos >> 4 & 15)));
+						if (storageChanges == null && !dynChanges)
+							continue;
+
+						int y = this.levelHeightAccessor.getSectionYFromSectionIndex(i);
+						int minY = y << 4;
+
+						for (int k = 0; k < playerCount; k++) {
+							DynamicSection dynSection = dynSections[k];
+							if (storageChanges == null && (dynSection == null || !dynSection.hasChanges()))
+								continue;
+
+							int hash = dynSection == null ? 0 : dynSection.revealHash();
+							int g = 0;
+							while (g < groupSections.size() && (groupHashes.getInt(g) != hash || !DynamicSection.sameReveals(groupSections.get(g), dynSection)))
+								g++;
+
+							if (g == groupSections.size()) {
+								BlockChanges changes = BlockChanges.local(chunk, y);
+
+								if (storageChanges != null) {
+									ShortIterator it = storageChanges.iterator();
+									while (it.hasNext()) {
+										short pos = it.nextShort();
+										changes.add(pos, (BlockState) (dynSection != null && dynSection.currentlyContains(pos) ? storage : view)
+												.block(minX + (pos >> 8 & 15), minY + (pos & 15), minZ + (pos >> 4 & 15)));
+									}
 								}
-							}
 
-							if (dynSection != null) {
-								dynSection.getChanges(changes);
-								dynSection.applyChanges();
+								if (dynSection != null)
+									dynSection.getChanges(changes);
+
+								List<Packet<ClientGamePacketListener>> packets = new ArrayList<>(2);
+								changes.sendTo(packets::add);
+
+								groupSections.add(dynSection);
+								groupHashes.add(hash);
+								groupPackets.add(packets);
 							}
 
-							changes.sendTo(p);
+							ServerPlayer p = players.get(k);
+							for (Packet<ClientGamePacketListener> packet : groupPackets.get(g))
+								p.connection.send(packet);
+						}
+
+						// Changes are applied once all groups are built since sections are compared using their pending changes
+						for (int k = 0; k < playerCount; k++) {
+							if (dynSections[k] != null)
+								dynSections[k].applyChanges();
 						}
+
+						groupSections.clear();
+						groupHashes.clear();
+						groupPackets.clear();
 					}
 				} else {
 					BlockVolume volume = storage.isViewAvailable() ? storage.view() : storage;
@@ -143,7 +195,7 @@ public abstract class ChunkHolderMixin extends GenerationChunkHolder implements
 						ShortSet storageChanges = this.changedBlocksPerSection[i];
 						if (storageChanges != null) {
 							int y = this.levelHeightAccessor.getSectionYFromSectionIndex(i);
-							BlockChanges changes = new BlockChanges(chunk, y);
+							BlockChanges changes = BlockChanges.local(chunk, y);
 							int minY = y << 4;
 
 							ShortIterator it = storageChanges.iterator();
@@ -196,6 +248,21 @@ public abstract class ChunkHolderMixin extends GenerationChunkHolder implements
 		}
 	}
 
+	@Override
+	public void addSectionChange(int sectionY) {
+		// The players receiving the chunk later get the whole section anyway
+		if (getPlayers(false).isEmpty())
+			return;
+
+		int minY = sectionY << 4;
+		for (int y = minY; y < minY + 16; y++) {
+			for (int z = 0; z < 16; z++) {
+				for (int x = 0; x < 16; x++)
+					addChange(x, y, z);
+			}
+		}
+	}
+
 	@Override
 	public void setDynamismEnabled(boolean value) {
 		this.dynamismEnabled = value;
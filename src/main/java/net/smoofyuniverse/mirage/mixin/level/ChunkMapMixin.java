@@ -109,7 +109,7 @@ public abstract class ChunkMapMixin implements InternalChunkMap {
 		InternalChunk chunk = (InternalChunk) levelChunk;
 		if (chunk.isViewAvailable()) {
 			NetworkChunk view = chunk.view();
-			view.obfuscate();
+			view.requestObfuscation();
 
 			ChunkChangeListener listener = (ChunkChangeListener) holder;
 			listener.setDynamismEnabled(view.isDynamismEnabled());
@@ -24,10 +24,16 @@ package net.smoofyuniverse.mirage.mixin.level;
 
 import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.profiling.ProfilerFiller;
 import net.smoofyuniverse.mirage.impl.internal.InternalServerChunkCache;
+import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 import java.util.Set;
 
@@ -37,6 +43,15 @@ public class ServerChunkCacheMixin implements InternalServerChunkCache {
     @Final
     private Set<ChunkHolder> chunkHoldersToBroadcast;
 
+    @Shadow
+    @Final
+    ServerLevel level;
+
+    @Inject(method = "broadcastChangedChunks", at = @At("HEAD"))
+    public void onBroadcastChangedChunks(ProfilerFiller profiler, CallbackInfo ci) {
+        ((InternalWorld) this.level).updateDynamicWorlds();
+    }
+
     @Override
     public void addChunkHolderToBroadcast(ChunkHolder holder) {
         this.chunkHoldersToBroadcast.add(holder);
@@ -85,6 +85,14 @@ public abstract class ServerLevelMixin extends LevelMixin {
 
 	@Override
 	public void removeDynamicWorld(UUID id) {
-		this.dynamicWorlds.remove(id);
+		DynamicWorld dynWorld = this.dynamicWorlds.remove(id);
+		if (dynWorld != null)
+			dynWorld.release();
+	}
+
+	@Override
+	public void updateDynamicWorlds() {
+		if (this.dynamismEnabled)
+			DynamicWorld.updateAll(this.dynamicWorlds.values());
 	}
 }
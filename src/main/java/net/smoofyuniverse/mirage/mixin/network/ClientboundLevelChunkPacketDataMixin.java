@@ -24,6 +24,7 @@ package net.smoofyuniverse.mirage.mixin.network;
 
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.protocol.game.ClientboundLevelChunkPacketData;
+import net.minecraft.world.level.chunk.LevelChunk;
 import net.minecraft.world.level.chunk.LevelChunkSection;
 import net.smoofyuniverse.mirage.impl.internal.InternalSection;
 import org.spongepowered.asm.mixin.Mixin;
@@ -34,12 +35,12 @@ import org.spongepowered.asm.mixin.injection.Redirect;
 public abstract class ClientboundLevelChunkPacketDataMixin {
 
 	@Redirect(method = "extractChunkData", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/level/chunk/LevelChunkSection;write(Lnet/minecraft/network/FriendlyByteBuf;)V"))
-	private static void writeModified(LevelChunkSection section, FriendlyByteBuf buffer) {
-		((InternalSection) section)._write(buffer);
+	private static void writeModified(LevelChunkSection section, FriendlyByteBuf buffer, FriendlyByteBuf chunkBuffer, LevelChunk chunk) {
+		((InternalSection) section)._write(buffer, chunk);
 	}
 
 	@Redirect(method = "calculateChunkSize", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/level/chunk/LevelChunkSection;getSerializedSize()I"))
-	private static int getModifiedSize(LevelChunkSection section) {
-		return ((InternalSection) section)._getSerializedSize();
+	private static int getModifiedSize(LevelChunkSection section, LevelChunk chunk) {
+		return ((InternalSection) section)._getSerializedSize(chunk);
 	}
 }
@@ -22,6 +22,9 @@
 
 package net.smoofyuniverse.mirage.mixin.network;
 
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.server.level.ChunkMap;
+import net.minecraft.server.level.ServerChunkCache;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.network.PlayerChunkSender;
@@ -33,17 +36,85 @@ import net.smoofyuniverse.mirage.api.volume.ChunkView;
 import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
 import net.smoofyuniverse.mirage.impl.internal.InternalPlayer;
 import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
+import net.smoofyuniverse.mirage.impl.network.NetworkChunk;
 import net.smoofyuniverse.mirage.impl.network.dynamic.DynamicChunk;
-import net.smoofyuniverse.mirage.impl.network.dynamic.DynamicSection;
 import net.smoofyuniverse.mirage.impl.network.dynamic.DynamicWorld;
 import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Mixin(PlayerChunkSender.class)
 public class PlayerChunkSenderMixin {
+    @Shadow
+    @Final
+    private LongSet pendingChunks;
+
+    // A chunk coming back into range is not evicted anymore, its obfuscation is requested before it is collected to be sent
+    @Inject(method = "markChunkPendingToSend", at = @At("HEAD"))
+    private void onChunkPending(LevelChunk levelChunk, CallbackInfo ci) {
+        InternalChunk chunk = (InternalChunk) levelChunk;
+        if (chunk.isViewAvailable()) {
+            ChunkPos pos = levelChunk.getPos();
+            chunk.world().view().cancelEviction(pos.x, pos.z);
+
+            NetworkChunk view = chunk.view();
+            if (view.state() == ChunkView.State.DEOBFUSCATED)
+                view.requestObfuscation();
+        }
+    }
+
+    @Inject(method = "sendChunk", at = @At("HEAD"))
+    private static void beforeChunkSent(ServerGamePacketListenerImpl packetListener, ServerLevel level, LevelChunk levelChunk, CallbackInfo ci) {
+        InternalWorld world = ((InternalWorld) level);
+        ChunkPos pos = levelChunk.getPos();
+
+        // The dynamic blocks revealed to the player are written in the chunk packet
+        if (world.isDynamismEnabled())
+            world.getOrCreateDynamicWorld((Player) packetListener.player).getOrCreateChunk(pos.x, pos.z).beginSend();
+    }
+
+    // Chunks whose obfuscation is not published yet stay in the pending queue and are sent in a later tick
+    @Inject(method = "collectChunksToSend", at = @At("RETURN"), cancellable = true)
+    private void onCollectChunks(ChunkMap chunkMap, ChunkPos playerPos, CallbackInfoReturnable<List<LevelChunk>> cir) {
+        List<LevelChunk> chunks = cir.getReturnValue();
+        List<LevelChunk> ready = null;
+
+        for (int i = 0; i < chunks.size(); i++) {
+            LevelChunk levelChunk = chunks.get(i);
+            InternalChunk chunk = (InternalChunk) levelChunk;
+            boolean obfuscated = true;
+
+            if (chunk.isViewAvailable()) {
+                NetworkChunk view = chunk.view();
+                if (!view.publishObfuscation()) {
+                    // The chunk may have been evicted while it was pending
+                    if (view.state() == ChunkView.State.DEOBFUSCATED)
+                        view.requestObfuscation();
+                    obfuscated = view.state() == ChunkView.State.OBFUSCATED;
+                }
+            }
+
+            if (obfuscated) {
+                if (ready != null)
+                    ready.add(levelChunk);
+            } else {
+                if (ready == null)
+                    ready = new ArrayList<>(chunks.subList(0, i));
+                this.pendingChunks.add(levelChunk.getPos().toLong());
+            }
+        }
+
+        if (ready != null)
+            cir.setReturnValue(ready);
+    }
 
     @Inject(method = "sendChunk", at = @At("RETURN"))
     private static void afterChunkSent(ServerGamePacketListenerImpl packetListener, ServerLevel level, LevelChunk levelChunk, CallbackInfo ci) {
@@ -54,17 +125,8 @@ public class PlayerChunkSenderMixin {
             Mirage.LOGGER.warn("Chunk {} {} has been sent without obfuscation.", pos.x, pos.z);
         }
 
-        InternalWorld world = ((InternalWorld) level);
-        if (world.isDynamismEnabled()) {
-            ServerPlayer player = packetListener.player;
-            DynamicChunk dynChunk = world.getOrCreateDynamicWorld((Player) player).getOrCreateChunk(pos.x, pos.z);
-            for (DynamicSection section : dynChunk.sections) {
-                if (section != null) {
-                    section.applyChanges();
-                    section.getCurrent().sendTo(player);
-                }
-            }
-        }
+        if (((InternalWorld) level).isDynamismEnabled())
+            DynamicChunk.endSend();
     }
 
     @Inject(method = "dropChunk", at = @At("RETURN"))
@@ -73,5 +135,16 @@ public class PlayerChunkSenderMixin {
         if (dynWorld != null) {
             dynWorld.removeChunk(pos.x, pos.z);
         }
+
+        // Release later the obfuscated content of chunks that no player can see anymore
+        ServerChunkCache chunkSource = player.level().getChunkSource();
+        LevelChunk levelChunk = chunkSource.getChunkNow(pos.x, pos.z);
+        if (levelChunk != null && ((InternalChunk) levelChunk).isViewAvailable()) {
+            for (ServerPlayer viewer : chunkSource.chunkMap.getPlayers(pos, false)) {
+                if (viewer != player)
+                    return;
+            }
+            ((InternalWorld) player.level()).view().scheduleEviction(pos.x, pos.z);
+        }
     }
 }
@@ -22,12 +22,13 @@
 
 package net.smoofyuniverse.mirage.modifier;
 
-import com.google.common.collect.ImmutableSet;
 import net.smoofyuniverse.mirage.api.cache.Signature.Builder;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
+import net.smoofyuniverse.mirage.api.modifier.StateMapping;
 import net.smoofyuniverse.mirage.api.volume.BlockView;
 import net.smoofyuniverse.mirage.config.pack.Resources;
 import net.smoofyuniverse.mirage.modifier.HideAllModifier.Config.Resolved;
+import net.smoofyuniverse.mirage.util.BlockStateSet;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.world.WorldType;
 import org.spongepowered.configurate.ConfigurationNode;
@@ -36,10 +37,8 @@ import org.spongepowered.configurate.objectmapping.meta.Setting;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.math.vector.Vector3i;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.util.*;
+import java.util.random.RandomGenerator;
 
 import static net.smoofyuniverse.mirage.config.pack.Resources.COMMON;
 import static net.smoofyuniverse.mirage.config.pack.Resources.RARE;
@@ -104,7 +103,12 @@ public class HideAllModifier implements ChunkModifier {
 	}
 
 	@Override
-	public void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config) {
+	public Optional<StateMapping> stateMapping(Object config) {
+		return Optional.of(((Resolved) config).mapping);
+	}
+
+	@Override
+	public void modify(BlockView view, Vector3i min, Vector3i max, RandomGenerator r, Object config) {
 		Resolved cfg = (Resolved) config;
 		final int maxX = max.x(), maxY = Math.min(max.y(), cfg.maxY), maxZ = max.z();
 
@@ -146,15 +150,23 @@ public class HideAllModifier implements ChunkModifier {
 		}
 
 		public static final class Resolved {
-			public final Set<BlockState> blocks;
+			public final BlockStateSet blocks;
 			public final BlockState replacement;
 			public final int minY, maxY;
+			public final StateMapping mapping;
 
 			public Resolved(Collection<BlockState> blocks, BlockState replacement, int minY, int maxY) {
-				this.blocks = ImmutableSet.copyOf(blocks);
+				this.blocks = BlockStateSet.of(blocks);
 				this.replacement = replacement;
 				this.minY = minY;
 				this.maxY = maxY;
+
+				Map<BlockState, BlockState> replacements = new HashMap<>();
+				for (BlockState b : this.blocks) {
+					if (b != AIR && b != replacement)
+						replacements.put(b, replacement);
+				}
+				this.mapping = new StateMapping(replacements, minY, maxY);
 			}
 		}
 	}
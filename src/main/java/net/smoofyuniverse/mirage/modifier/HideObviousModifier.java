@@ -22,12 +22,13 @@
 
 package net.smoofyuniverse.mirage.modifier;
 
-import com.google.common.collect.ImmutableSet;
 import net.smoofyuniverse.mirage.api.cache.Signature.Builder;
+import net.smoofyuniverse.mirage.api.modifier.BlockOperation;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
 import net.smoofyuniverse.mirage.api.volume.BlockView;
 import net.smoofyuniverse.mirage.config.pack.Resources;
 import net.smoofyuniverse.mirage.modifier.HideObviousModifier.Config.Resolved;
+import net.smoofyuniverse.mirage.util.BlockStateSet;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.world.WorldType;
 import org.spongepowered.configurate.ConfigurationNode;
@@ -36,14 +37,13 @@ import org.spongepowered.configurate.objectmapping.meta.Setting;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.math.vector.Vector3i;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.util.*;
+import java.util.random.RandomGenerator;
 
 import static net.smoofyuniverse.mirage.config.pack.Resources.COMMON;
 import static net.smoofyuniverse.mirage.config.pack.Resources.RARE;
 import static net.smoofyuniverse.mirage.util.BlockUtil.AIR;
+import static net.smoofyuniverse.mirage.util.BlockUtil.isOpaque;
 import static net.smoofyuniverse.mirage.util.MathUtil.clampY;
 import static net.smoofyuniverse.mirage.util.RegistryUtil.resolveBlockState;
 import static net.smoofyuniverse.mirage.util.RegistryUtil.resolveBlockStates;
@@ -105,33 +105,79 @@ public class HideObviousModifier implements ChunkModifier {
 	}
 
 	@Override
-	public void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config) {
+	public Optional<Set<BlockState>> targetBlocks(Object config) {
+		return Optional.of(((Resolved) config).targets);
+	}
+
+	@Override
+	public Optional<BlockOperation> blockOperation(Object config) {
+		return Optional.of(((Resolved) config).operation);
+	}
+
+	@Override
+	public void modify(BlockView view, Vector3i min, Vector3i max, RandomGenerator r, Object config) {
 		Resolved cfg = (Resolved) config;
-		boolean useDynamism = cfg.dynamism != 0 && view.isDynamismEnabled();
+		BlockOperation op = cfg.operation;
 		final int maxX = max.x(), maxY = Math.min(max.y(), cfg.maxY), maxZ = max.z();
 
 		for (int y = Math.max(min.y(), cfg.minY); y <= maxY; y++) {
 			for (int z = min.z(); z <= maxZ; z++) {
 				for (int x = min.x(); x <= maxX; x++) {
-					BlockState b = view.block(x, y, z);
-					if (b == AIR || b == cfg.replacement)
-						continue;
-
-					if (cfg.blocks.contains(b)) {
-						if (view.isExposed(x, y, z)) {
-							if (useDynamism) {
-								view.setDynamism(x, y, z, cfg.dynamism);
-								view.setBlock(x, y, z, cfg.replacement);
-							}
-						} else {
-							view.setBlock(x, y, z, cfg.replacement);
-						}
-					}
+					op.apply(view, x, y, z, view.block(x, y, z), r);
 				}
 			}
 		}
 	}
 
+	private static final class Operation implements BlockOperation {
+		private final Resolved cfg;
+
+		private Operation(Resolved cfg) {
+			this.cfg = cfg;
+		}
+
+		@Override
+		public int minY() {
+			return this.cfg.minY;
+		}
+
+		@Override
+		public int maxY() {
+			return this.cfg.maxY;
+		}
+
+		@Override
+		public boolean usesRandom() {
+			return false;
+		}
+
+		@Override
+		public boolean preservesOpacity() {
+			boolean opaque = isOpaque(this.cfg.replacement);
+			for (BlockState b : this.cfg.blocks) {
+				if (b != AIR && isOpaque(b) != opaque)
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public BlockState apply(BlockView view, int x, int y, int z, BlockState b, RandomGenerator r) {
+			Resolved cfg = this.cfg;
+			if (b == AIR || b == cfg.replacement || !cfg.blocks.contains(b))
+				return b;
+
+			if (view.isExposed(x, y, z)) {
+				if (cfg.dynamism == 0 || !view.isDynamismEnabled())
+					return b;
+				view.setDynamism(x, y, z, cfg.dynamism);
+			}
+
+			view.setBlock(x, y, z, cfg.replacement);
+			return cfg.replacement;
+		}
+	}
+
 	@org.spongepowered.configurate.objectmapping.ConfigSerializable
 	public static final class Config {
 		@Comment("Blocks that will be hidden by the modifier")
@@ -160,17 +206,24 @@ public class HideObviousModifier implements ChunkModifier {
 		}
 
 		public static final class Resolved {
-			public final Set<BlockState> blocks;
+			public final BlockStateSet blocks;
 			public final BlockState replacement;
 			public final int dynamism;
 			public final int minY, maxY;
+			public final BlockStateSet targets;
+			public final BlockOperation operation;
 
 			public Resolved(Collection<BlockState> blocks, BlockState replacement, int dynamism, int minY, int maxY) {
-				this.blocks = ImmutableSet.copyOf(blocks);
+				this.blocks = BlockStateSet.of(blocks);
+				Set<BlockState> targets = new HashSet<>(this.blocks);
+				targets.remove(AIR);
+				targets.remove(replacement);
+				this.targets = BlockStateSet.of(targets);
 				this.replacement = replacement;
 				this.dynamism = dynamism;
 				this.minY = minY;
 				this.maxY = maxY;
+				this.operation = new Operation(this);
 			}
 		}
 	}
@@ -37,7 +37,7 @@ import org.spongepowered.configurate.objectmapping.meta.Setting;
 import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.math.vector.Vector3i;
 
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 import static net.smoofyuniverse.mirage.util.BlockUtil.BEDROCK;
 import static net.smoofyuniverse.mirage.util.RegistryUtil.resolveBlockState;
@@ -81,7 +81,7 @@ public class RandomBedrockModifier implements ChunkModifier {
 	}
 
 	@Override
-	public void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config) {
+	public void modify(BlockView view, Vector3i min, Vector3i max, RandomGenerator r, Object config) {
 		Resolved cfg = (Resolved) config;
 
 		int height = cfg.height;
@@ -22,13 +22,16 @@
 
 package net.smoofyuniverse.mirage.modifier;
 
-import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
 import net.smoofyuniverse.bingo.WeightedList;
 import net.smoofyuniverse.mirage.api.cache.Signature.Builder;
+import net.smoofyuniverse.mirage.api.modifier.BlockOperation;
 import net.smoofyuniverse.mirage.api.modifier.ChunkModifier;
 import net.smoofyuniverse.mirage.api.volume.BlockView;
 import net.smoofyuniverse.mirage.config.pack.Resources;
 import net.smoofyuniverse.mirage.modifier.RandomBlockModifier.Config.Resolved;
+import net.smoofyuniverse.mirage.util.BlockStateSet;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.world.WorldType;
 import org.spongepowered.configurate.ConfigurationNode;
@@ -38,9 +41,11 @@ import org.spongepowered.configurate.serialize.SerializationException;
 import org.spongepowered.math.vector.Vector3i;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 
 import static net.smoofyuniverse.mirage.config.pack.Resources.*;
 import static net.smoofyuniverse.mirage.util.BlockUtil.AIR;
+import static net.smoofyuniverse.mirage.util.BlockUtil.isOpaque;
 import static net.smoofyuniverse.mirage.util.MathUtil.clampY;
 import static net.smoofyuniverse.mirage.util.RegistryUtil.resolveBlockStates;
 
@@ -99,28 +104,90 @@ public class RandomBlockModifier implements ChunkModifier {
 	@Override
 	public void appendSignature(Builder builder, Object config) {
 		Resolved cfg = (Resolved) config;
-		builder.append(cfg.blocks).append(cfg.replacements).append(cfg.minY).append(cfg.maxY);
+		builder.append(cfg.blocks);
+		for (int i = 0; i < cfg.replacementValues.length; i++)
+			builder.append(cfg.replacementValues[i]).append(cfg.replacementWeights[i]);
+		builder.append(cfg.minY).append(cfg.maxY);
 	}
 
 	@Override
-	public void modify(BlockView view, Vector3i min, Vector3i max, Random r, Object config) {
+	public Optional<Set<BlockState>> targetBlocks(Object config) {
+		return Optional.of(((Resolved) config).targets);
+	}
+
+	@Override
+	public Optional<BlockOperation> blockOperation(Object config) {
+		return Optional.of(((Resolved) config).operation);
+	}
+
+	@Override
+	public void modify(BlockView view, Vector3i min, Vector3i max, RandomGenerator r, Object config) {
 		Resolved cfg = (Resolved) config;
+		BlockOperation op = cfg.operation;
 		final int maxX = max.x(), maxY = Math.min(max.y(), cfg.maxY), maxZ = max.z();
 
 		for (int y = Math.max(min.y(), cfg.minY); y <= maxY; y++) {
 			for (int z = min.z(); z <= maxZ; z++) {
 				for (int x = min.x(); x <= maxX; x++) {
-					BlockState b = view.block(x, y, z);
-					if (b == AIR)
-						continue;
-
-					if (cfg.blocks.contains(b) && !view.isExposed(x, y, z))
-						view.setBlock(x, y, z, cfg.replacements.get(r).value);
+					op.apply(view, x, y, z, view.block(x, y, z), r);
 				}
 			}
 		}
 	}
 
+	private static final class Operation implements BlockOperation {
+		private final Resolved cfg;
+
+		private Operation(Resolved cfg) {
+			this.cfg = cfg;
+		}
+
+		@Override
+		public int minY() {
+			return this.cfg.minY;
+		}
+
+		@Override
+		public int maxY() {
+			return this.cfg.maxY;
+		}
+
+		@Override
+		public boolean usesRandom() {
+			return true;
+		}
+
+		@Override
+		public boolean preservesOpacity() {
+			Boolean opaque = null;
+			for (BlockState b : this.cfg.blocks) {
+				if (b == AIR)
+					continue;
+				if (opaque == null)
+					opaque = isOpaque(b);
+				else if (isOpaque(b) != opaque)
+					return false;
+			}
+			for (BlockState b : this.cfg.replacementStates) {
+				if (opaque == null)
+					opaque = isOpaque(b);
+				else if (isOpaque(b) != opaque)
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public BlockState apply(BlockView view, int x, int y, int z, BlockState b, RandomGenerator r) {
+			if (b == AIR || !this.cfg.blocks.contains(b) || view.isExposed(x, y, z))
+				return b;
+
+			BlockState replacement = this.cfg.nextReplacement(r);
+			view.setBlock(x, y, z, replacement);
+			return replacement;
+		}
+	}
+
 	@org.spongepowered.configurate.objectmapping.ConfigSerializable
 	public static final class Config {
 		@Comment("Blocks that will be hidden by the modifier")
@@ -140,20 +207,56 @@ public class RandomBlockModifier implements ChunkModifier {
 		public Integer maxY;
 
 		public Resolved resolve() {
+			Map<BlockState, Double> replacements = resolveBlockStates(this.replacements);
 			return new Resolved(resolveBlockStates(this.blocks),
-					WeightedList.of(resolveBlockStates(this.replacements)), this.minY, this.maxY);
+					WeightedList.of(replacements), replacements.keySet(), this.minY, this.maxY);
 		}
 
 		public static final class Resolved {
-			public final Set<BlockState> blocks;
-			public final WeightedList<BlockState> replacements;
+			public final BlockStateSet blocks;
+			public final BlockStateSet replacementStates;
 			public final int minY, maxY;
+			public final BlockStateSet targets;
+			public final BlockOperation operation;
+			private final BlockState[] replacementValues;
+			private final double[] replacementWeights, cumulativeWeights;
 
-			public Resolved(Collection<BlockState> blocks, WeightedList<BlockState> replacements, int minY, int maxY) {
-				this.blocks = ImmutableSet.copyOf(blocks);
-				this.replacements = replacements;
+			public Resolved(Collection<BlockState> blocks, WeightedList<BlockState> replacements, Collection<BlockState> replacementStates, int minY, int maxY) {
+				this.blocks = BlockStateSet.of(blocks);
+				Set<BlockState> targets = new HashSet<>(this.blocks);
+				targets.remove(AIR);
+				this.targets = BlockStateSet.of(targets);
+				this.replacementStates = BlockStateSet.of(replacementStates);
 				this.minY = minY;
 				this.maxY = maxY;
+				this.operation = new Operation(this);
+
+				// Only the flattened form of the list is kept, in the same order
+				List<BlockState> values = new ArrayList<>();
+				DoubleList weights = new DoubleArrayList(), cumulativeWeights = new DoubleArrayList();
+				replacements.forEach(e -> {
+					values.add(e.value);
+					weights.add(e.weight);
+					cumulativeWeights.add((cumulativeWeights.isEmpty() ? 0 : cumulativeWeights.getDouble(cumulativeWeights.size() - 1)) + e.weight);
+				});
+				this.replacementValues = values.toArray(new BlockState[0]);
+				this.replacementWeights = weights.toDoubleArray();
+				this.cumulativeWeights = cumulativeWeights.toDoubleArray();
+			}
+
+			public BlockState nextReplacement(RandomGenerator r) {
+				double[] weights = this.cumulativeWeights;
+				double d = r.nextDouble() * weights[weights.length - 1];
+
+				int low = 0, high = weights.length - 1;
+				while (low < high) {
+					int mid = (low + high) >>> 1;
+					if (weights[mid] > d)
+						high = mid;
+					else
+						low = mid + 1;
+				}
+				return this.replacementValues[low];
 			}
 		}
 	}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.util;
+
+import net.minecraft.world.level.block.Block;
+import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of block states backed by a bitset indexed by the global id of the states.
+ * Membership is tested with a single array load.
+ */
+public final class BlockStateSet extends AbstractSet<BlockState> {
+	public static final BlockStateSet EMPTY = new BlockStateSet(new long[0]);
+
+	private final long[] words;
+	private final int size;
+
+	private BlockStateSet(long[] words) {
+		this.words = words;
+
+		int size = 0;
+		for (long word : words)
+			size += Long.bitCount(word);
+		this.size = size;
+	}
+
+	public boolean contains(BlockState state) {
+		// The cached id is resolved lazily from the registry, see InternalBlockState#getStateId()
+		int id = ((InternalBlockState) state).getStateId();
+		int w = id >>> 6;
+		return w < this.words.length && (this.words[w] & 1L << id) != 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof BlockState state && contains(state);
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public Iterator<BlockState> iterator() {
+		return new Iterator<>() {
+			private int next = nextId(0);
+
+			@Override
+			public boolean hasNext() {
+				return this.next != -1;
+			}
+
+			@Override
+			public BlockState next() {
+				if (this.next == -1)
+					throw new NoSuchElementException();
+
+				int id = this.next;
+				this.next = nextId(id + 1);
+				return (BlockState) Block.stateById(id);
+			}
+		};
+	}
+
+	private int nextId(int from) {
+		int w = from >>> 6;
+		if (w >= this.words.length)
+			return -1;
+
+		long word = this.words[w] & -1L << from;
+		while (true) {
+			if (word != 0)
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			if (++w == this.words.length)
+				return -1;
+			word = this.words[w];
+		}
+	}
+
+	public static BlockStateSet of(Collection<? extends BlockState> states) {
+		if (states instanceof BlockStateSet set)
+			return set;
+		if (states.isEmpty())
+			return EMPTY;
+
+		int[] ids = new int[states.size()];
+		int n = 0, maxId = 0;
+		for (BlockState state : states) {
+			int id = Block.getId((net.minecraft.world.level.block.state.BlockState) state);
+			if (id < 0)
+				throw new IllegalArgumentException("Unregistered block state: " + state);
+			ids[n++] = id;
+			maxId = Math.max(maxId, id);
+		}
+
+		long[] words = new long[(maxId >>> 6) + 1];
+		for (int id : ids)
+			words[id >>> 6] |= 1L << id;
+		return new BlockStateSet(words);
+	}
+}
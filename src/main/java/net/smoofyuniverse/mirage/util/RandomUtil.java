@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.util;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+public class RandomUtil {
+	private static final RandomGeneratorFactory<RandomGenerator> FACTORY = RandomGeneratorFactory.of("Xoroshiro128PlusPlus");
+
+	/**
+	 * Creates a fast, non thread-safe generator.
+	 * Close seeds give unrelated sequences.
+	 *
+	 * @param seed The seed
+	 * @return The generator
+	 */
+	public static RandomGenerator create(long seed) {
+		return FACTORY.create(seed);
+	}
+
+	/**
+	 * Creates a generator for a sub-stream of the given seed.
+	 * The sequence only depends on both arguments, so independent sub-streams can be derived from a single seed.
+	 *
+	 * @param seed   The seed
+	 * @param stream The stream number
+	 * @return The generator
+	 */
+	public static RandomGenerator create(long seed, long stream) {
+		return FACTORY.create(seed ^ HashCommon.mix(stream * 0x9e3779b97f4a7c15L));
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.core.IdMapper;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.Strategy;
+import net.smoofyuniverse.mirage.api.volume.MemoryUsage;
+import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
+import net.smoofyuniverse.mirage.impl.network.change.ChunkChangeListener;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class NetworkSectionTest {
+	// Mixins are not applied in tests, the states are mocks implementing the internal interface
+	private static BlockState air, stone, ore, glass;
+	private static IdMapper<BlockState> registry;
+
+	private PalettedContainer<BlockState> real;
+
+	@BeforeAll
+	static void bootstrap() {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+
+		air = state("air", true, false);
+		stone = state("stone", false, true);
+		ore = state("ore", false, true);
+		glass = state("glass", false, false);
+
+		registry = new IdMapper<>();
+		for (BlockState state : List.of(air, stone, ore, glass))
+			registry.add(state);
+	}
+
+	private static BlockState state(String name, boolean isAir, boolean opaque) {
+		BlockState state = mock(BlockState.class, withSettings().name(name).extraInterfaces(InternalBlockState.class));
+		when(state.isAir()).thenReturn(isAir);
+		when(((InternalBlockState) state).isOpaque()).thenReturn(opaque);
+		return state;
+	}
+
+	private NetworkSection section(BlockState fill) {
+		this.real = new PalettedContainer<>(fill, Strategy.createForBlockStates(registry));
+		LevelChunkSection storage = mock(LevelChunkSection.class);
+		when(storage.getStates()).thenReturn(this.real);
+		when(storage.hasOnlyAir()).thenReturn(fill.isAir());
+		return new NetworkSection(storage);
+	}
+
+	private void setReal(NetworkSection section, int x, int y, int z, BlockState state) {
+		BlockState oldState = this.real.getAndSet(x, y, z, state);
+		section.onRealChange(x, y, z, oldState, state);
+	}
+
+	@Test
+	void onlyDifferencesAreStored() {
+		NetworkSection section = section(stone);
+
+		assertFalse(section.setBlockState(1, 2, 3, stone));
+		assertEquals(0, section.getModifiedCount());
+
+		assertTrue(section.setBlockState(1, 2, 3, ore));
+		assertSame(ore, section.getBlockState(1, 2, 3));
+		assertSame(stone, section.getBlockState(3, 2, 1));
+		assertSame(stone, section.getRealState(1, 2, 3));
+		assertEquals(1, section.getModifiedCount());
+
+		assertTrue(section.setBlockState(1, 2, 3, stone));
+		assertSame(stone, section.getBlockState(1, 2, 3));
+		assertEquals(0, section.getModifiedCount());
+	}
+
+	@Test
+	void overlayKeepsPositionsInOrder() {
+		NetworkSection section = section(stone);
+
+		// Insert in reverse order across several words
+		for (int i = 4095; i >= 0; i -= 7) {
+			BlockState state = (i & 1) == 0 ? ore : glass;
+			section.setBlockState(i & 15, i >> 8, i >> 4 & 15, state);
+		}
+		for (int i = 4095; i >= 0; i -= 14)
+			section.setBlockState(i & 15, i >> 8, i >> 4 & 15, stone);
+
+		int expected = 0;
+		for (int i = 0; i < 4096; i++) {
+			BlockState state = section.getBlockState(i & 15, i >> 8, i >> 4 & 15);
+			if ((4095 - i) % 14 == 7) {
+				assertSame((i & 1) == 0 ? ore : glass, state, "index " + i);
+				expected++;
+			} else {
+				assertSame(stone, state, "index " + i);
+			}
+		}
+		assertEquals(expected, section.getModifiedCount());
+	}
+
+	@Test
+	void realChangeIsRevealed() {
+		NetworkSection section = section(stone);
+		section.setBlockState(0, 0, 0, ore);
+
+		setReal(section, 0, 0, 0, glass);
+		assertSame(glass, section.getBlockState(0, 0, 0));
+		assertEquals(0, section.getModifiedCount());
+
+		setReal(section, 5, 5, 5, air);
+		assertSame(air, section.getBlockState(5, 5, 5));
+		assertEquals(0, section.getModifiedCount());
+	}
+
+	@Test
+	void airAndOpacityFollowTheView() {
+		NetworkSection section = section(air);
+		assertTrue(section.hasOnlyAir());
+		assertFalse(section.isOpaque(4, 4, 4));
+
+		section.setBlockState(4, 4, 4, stone);
+		assertFalse(section.hasOnlyAir());
+		assertTrue(section.isOpaque(4, 4, 4));
+
+		section.setBlockState(4, 4, 4, glass);
+		assertFalse(section.isOpaque(4, 4, 4));
+
+		section.setBlockState(4, 4, 4, air);
+		assertTrue(section.hasOnlyAir());
+	}
+
+	@Test
+	void copyIsDetachedUntilLoaded() {
+		NetworkSection section = section(stone);
+		section.setBlockState(1, 1, 1, ore);
+
+		NetworkSection copy = section.copy();
+		copy.setBlockState(2, 2, 2, ore);
+		copy.setBlockState(1, 1, 1, stone);
+
+		assertSame(ore, section.getBlockState(1, 1, 1));
+		assertSame(stone, section.getBlockState(2, 2, 2));
+
+		section.load(copy);
+		assertSame(stone, section.getBlockState(1, 1, 1));
+		assertSame(ore, section.getBlockState(2, 2, 2));
+		assertEquals(1, section.getModifiedCount());
+	}
+
+	@Test
+	void deobfuscateRestoresRealStates() {
+		NetworkSection section = section(stone);
+		section.setBlockState(1, 1, 1, ore);
+		section.setBlockState(2, 2, 2, air);
+
+		section.deobfuscate(null);
+		assertEquals(0, section.getModifiedCount());
+		assertSame(stone, section.getBlockState(1, 1, 1));
+		assertSame(stone, section.getBlockState(2, 2, 2));
+		assertTrue(section.isOpaque(2, 2, 2));
+	}
+
+	@Test
+	void reportedFootprintMatchesRecalculation() {
+		NetworkSection section = section(stone);
+		MemoryTracker tracker = new MemoryTracker();
+		section.setTracker(tracker);
+		section.isOpaque(0, 0, 0);
+
+		// Enough dynamic positions to switch to the dense storage
+		for (int i = 0; i < 4096; i += 3) {
+			section.setBlockState(i & 15, i >> 8, i >> 4 & 15, ore);
+			section.setDynamism(i & 15, i >> 8, i >> 4 & 15, 1 + i % 10);
+		}
+		for (int i = 0; i < 4096; i += 6) {
+			section.setBlockState(i & 15, i >> 8, i >> 4 & 15, stone);
+			section.setDynamism(i & 15, i >> 8, i >> 4 & 15, 0);
+		}
+
+		MemoryUsage usage = tracker.snapshot();
+		MemoryTracker other = new MemoryTracker();
+		section.setTracker(other);
+		assertEquals(usage.sections, other.snapshot().sections);
+		assertEquals(usage.dynamism, other.snapshot().dynamism);
+		assertEquals(0, tracker.snapshot().total());
+
+		section.clearDynamism();
+		assertEquals(0, other.snapshot().dynamism);
+	}
+
+	@Test
+	void wholeSectionReplaceSubstitutesRealStates() {
+		NetworkSection section = section(stone);
+		section.setBlockState(1, 1, 1, ore);
+		ChunkChangeListener listener = mock(ChunkChangeListener.class);
+
+		assertTrue(section.replace(Map.of(stone, glass), 0, 15, listener));
+		verify(listener).addSectionChange(0);
+		verify(listener, never()).addChange(anyInt(), anyInt(), anyInt());
+
+		assertSame(glass, section.getBlockState(0, 0, 0));
+		assertSame(ore, section.getBlockState(1, 1, 1));
+		assertSame(stone, section.getRealState(0, 0, 0));
+		assertEquals(1, section.getModifiedCount());
+		assertFalse(section.isOpaque(0, 0, 0));
+
+		// The mappings are composed
+		assertTrue(section.replace(Map.of(glass, ore), 0, 15, null));
+		assertSame(ore, section.getBlockState(0, 0, 0));
+		assertTrue(section.isOpaque(0, 0, 0));
+	}
+
+	@Test
+	void replaceWithoutTargetDoesNothing() {
+		NetworkSection section = section(stone);
+		ChunkChangeListener listener = mock(ChunkChangeListener.class);
+
+		assertFalse(section.replace(Map.of(ore, glass), 0, 15, listener));
+		assertFalse(section.replace(Map.of(ore, glass), 2, 3, listener));
+		verifyNoInteractions(listener);
+	}
+
+	@Test
+	void substitutedRealChangeIsRevealed() {
+		NetworkSection section = section(stone);
+		section.replace(Map.of(stone, glass), 0, 15, null);
+
+		setReal(section, 3, 3, 3, air);
+		assertSame(air, section.getBlockState(3, 3, 3));
+
+		// The real state must be seen even if it is substituted
+		setReal(section, 3, 3, 3, stone);
+		assertSame(stone, section.getBlockState(3, 3, 3));
+		assertSame(glass, section.getBlockState(4, 4, 4));
+	}
+
+	@Test
+	void partialReplaceOnlyChangesTheRange() {
+		NetworkSection section = section(stone);
+		section.setBlockState(0, 2, 0, glass);
+		ChunkChangeListener listener = mock(ChunkChangeListener.class);
+
+		assertTrue(section.replace(Map.of(stone, ore), 2, 3, listener));
+		verify(listener, times(511)).addChange(anyInt(), anyInt(), anyInt());
+		verify(listener, never()).addSectionChange(anyInt());
+
+		for (int y = 0; y < 16; y++) {
+			BlockState expected = y == 2 || y == 3 ? ore : stone;
+			assertSame(expected, section.getBlockState(5, y, 7), "y " + y);
+		}
+		assertSame(glass, section.getBlockState(0, 2, 0));
+		assertEquals(512, section.getModifiedCount());
+	}
+
+	@Test
+	void deobfuscateRemovesSubstitutions() {
+		NetworkSection section = section(stone);
+		section.replace(Map.of(stone, glass), 0, 15, null);
+		ChunkChangeListener listener = mock(ChunkChangeListener.class);
+
+		section.deobfuscate(listener);
+		verify(listener).addSectionChange(0);
+		assertSame(stone, section.getBlockState(0, 0, 0));
+		assertTrue(section.isOpaque(0, 0, 0));
+	}
+}
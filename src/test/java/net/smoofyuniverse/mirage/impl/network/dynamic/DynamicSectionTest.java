@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.impl.network.dynamic;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.smoofyuniverse.mirage.config.world.MainConfig;
+import net.smoofyuniverse.mirage.config.world.WorldConfig;
+import net.smoofyuniverse.mirage.impl.internal.InternalChunk;
+import net.smoofyuniverse.mirage.impl.internal.InternalSection;
+import net.smoofyuniverse.mirage.impl.internal.InternalWorld;
+import net.smoofyuniverse.mirage.impl.network.MemoryTracker;
+import net.smoofyuniverse.mirage.impl.network.NetworkSection;
+import net.smoofyuniverse.mirage.impl.network.NetworkWorld;
+import net.smoofyuniverse.mirage.impl.network.change.BlockChanges;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DynamicSectionTest {
+	private static BlockState realState, hiddenState;
+
+	private DynamicChunk chunk;
+	private NetworkSection view;
+
+	@BeforeAll
+	static void bootstrap() {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+
+		realState = mock(BlockState.class, "real");
+		hiddenState = mock(BlockState.class, "hidden");
+	}
+
+	@BeforeEach
+	void createChunk() {
+		NetworkWorld worldView = mock(NetworkWorld.class);
+		when(worldView.getMemoryTracker()).thenReturn(new MemoryTracker());
+		when(worldView.config()).thenReturn(new WorldConfig(new MainConfig.Resolved(true, false, true, false, 0, 1, 1, null, null), List.of(), 0, 0));
+		InternalWorld world = mock(InternalWorld.class);
+		when(world.view()).thenReturn(worldView);
+
+		this.view = mock(NetworkSection.class);
+		when(this.view.getBlockState(anyInt(), anyInt(), anyInt())).thenReturn(hiddenState);
+		LevelChunkSection storage = mock(LevelChunkSection.class, withSettings().extraInterfaces(InternalSection.class));
+		when(storage.getBlockState(anyInt(), anyInt(), anyInt())).thenReturn(realState);
+		when(((InternalSection) storage).view()).thenReturn(this.view);
+
+		InternalChunk chunk = mock(InternalChunk.class);
+		when(chunk.getSectionsCount()).thenReturn(1);
+		when(chunk.getMinSectionY()).thenReturn(0);
+		when(chunk.getSections()).thenReturn(new LevelChunkSection[]{storage});
+
+		this.chunk = new DynamicChunk(new DynamicWorld(world), chunk);
+	}
+
+	private DynamicSection section() {
+		return new DynamicSection(this.chunk, 0);
+	}
+
+	// The packed index used by the block changes
+	private static short pos(int x, int y, int z) {
+		return (short) (x << 8 | z << 4 | y);
+	}
+
+	@Test
+	void addedPositionIsRevealedOnce() {
+		DynamicSection section = section();
+		section.add(1, 2, 3);
+		assertTrue(section.hasChanges());
+		assertFalse(section.currentlyContains(1, 2, 3));
+
+		BlockChanges changes = mock(BlockChanges.class);
+		section.getChanges(changes);
+		verify(changes).add(pos(1, 2, 3), realState);
+		verifyNoMoreInteractions(changes);
+
+		section.applyChanges();
+		assertFalse(section.hasChanges());
+		assertTrue(section.currentlyContains(1, 2, 3));
+
+		changes = mock(BlockChanges.class);
+		section.add(1, 2, 3);
+		section.getChanges(changes);
+		verifyNoInteractions(changes);
+	}
+
+	@Test
+	void removedPositionIsHidden() {
+		DynamicSection section = section();
+		section.add(4, 5, 6);
+		section.applyChanges();
+
+		section.remove(4, 5, 6);
+		BlockChanges changes = mock(BlockChanges.class);
+		section.getChanges(changes);
+		verify(changes).add(pos(4, 5, 6), hiddenState);
+		verifyNoMoreInteractions(changes);
+
+		section.applyChanges();
+		assertFalse(section.currentlyContains(4, 5, 6));
+		assertTrue(section.hasNoReveals());
+	}
+
+	@Test
+	void revertedPositionIsNotSent() {
+		DynamicSection section = section();
+		section.add(7, 8, 9);
+		section.remove(7, 8, 9);
+
+		BlockChanges changes = mock(BlockChanges.class);
+		section.getChanges(changes);
+		verifyNoInteractions(changes);
+	}
+
+	@Test
+	void clearHidesAllPositions() {
+		DynamicSection section = section();
+		for (int i = 0; i < 16; i++)
+			section.add(i, i, 15 - i);
+		section.applyChanges();
+
+		section.clear();
+		BlockChanges changes = mock(BlockChanges.class);
+		section.getChanges(changes);
+		verify(changes, times(16)).add(anyShort(), same(hiddenState));
+		verify(changes, never()).add(anyShort(), same(realState));
+
+		section.applyChanges();
+		assertTrue(section.hasNoReveals());
+	}
+
+	@Test
+	void updateSkipsGroupsOutsideTheBoundary() {
+		when(this.view.getDynamicCount(1)).thenReturn(2);
+		when(this.view.getDynamicPositions(1)).thenReturn(new short[]{(short) NetworkSection.index(1, 2, 3), (short) NetworkSection.index(3, 2, 1)});
+
+		DynamicSection section = section();
+		// Entirely within the reveal sphere of the distance 1
+		section.update(this.view, 0, 1);
+		section.applyChanges();
+		assertTrue(section.currentlyContains(1, 2, 3));
+		assertTrue(section.currentlyContains(3, 2, 1));
+
+		// Entirely outside
+		section.update(this.view, 10000, 20000);
+		section.applyChanges();
+		assertTrue(section.hasNoReveals());
+	}
+
+	@Test
+	void sectionsWithSameRevealsAreShared() {
+		DynamicSection a = section(), b = section();
+		assertTrue(DynamicSection.sameReveals(a, null));
+
+		a.add(1, 1, 1);
+		b.add(1, 1, 1);
+		assertTrue(DynamicSection.sameReveals(a, b));
+		assertEquals(a.revealHash(), b.revealHash());
+		assertFalse(DynamicSection.sameReveals(a, null));
+
+		a.applyChanges();
+		assertFalse(DynamicSection.sameReveals(a, b));
+
+		b.applyChanges();
+		assertTrue(DynamicSection.sameReveals(a, b));
+		assertEquals(a.revealHash(), b.revealHash());
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2026 Hugo Dupanloup (Yeregorix)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.smoofyuniverse.mirage.util;
+
+import net.minecraft.SharedConstants;
+import net.minecraft.server.Bootstrap;
+import net.minecraft.world.level.block.Block;
+import net.smoofyuniverse.mirage.impl.internal.InternalBlockState;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BlockStateSetTest {
+	// Mixins are not applied in tests, the states are mocks registered after the vanilla ones
+	private static BlockState a, b, c, unregistered;
+
+	@BeforeAll
+	static void bootstrap() {
+		SharedConstants.tryDetectVersion();
+		Bootstrap.bootStrap();
+
+		a = state("a", true);
+		b = state("b", true);
+		c = state("c", true);
+		unregistered = state("unregistered", false);
+	}
+
+	private static BlockState state(String name, boolean register) {
+		net.minecraft.world.level.block.state.BlockState state = mock(net.minecraft.world.level.block.state.BlockState.class,
+				withSettings().name(name).extraInterfaces(BlockState.class, InternalBlockState.class));
+		if (register)
+			Block.BLOCK_STATE_REGISTRY.add(state);
+		when(((InternalBlockState) state).getStateId()).thenReturn(register ? Block.getId(state) : Integer.MAX_VALUE);
+		return (BlockState) state;
+	}
+
+	@Test
+	void containsOnlyGivenStates() {
+		BlockStateSet set = BlockStateSet.of(List.of(a, c));
+		assertEquals(2, set.size());
+		assertTrue(set.contains(a));
+		assertFalse(set.contains(b));
+		assertTrue(set.contains(c));
+		assertFalse(set.contains(unregistered));
+		assertFalse(set.contains((Object) "a"));
+	}
+
+	@Test
+	void iteratesInIdOrder() {
+		BlockStateSet set = BlockStateSet.of(List.of(c, a, c));
+		assertEquals(2, set.size());
+		assertEquals(List.of(a, c), new ArrayList<>(set));
+	}
+
+	@Test
+	void emptyAndExistingSetsAreReused() {
+		assertSame(BlockStateSet.EMPTY, BlockStateSet.of(List.of()));
+		assertFalse(BlockStateSet.EMPTY.contains(a));
+		assertFalse(BlockStateSet.EMPTY.iterator().hasNext());
+
+		BlockStateSet set = BlockStateSet.of(List.of(b));
+		assertSame(set, BlockStateSet.of(set));
+	}
+
+	@Test
+	void unregisteredStateIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> BlockStateSet.of(List.of(a, unregistered)));
+	}
+}